@@ -0,0 +1,32 @@
+package org.mayukh.rivet.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Params of the battery and car beans of the model, as read from a config
+ */
+final class BenchmarkBeans {
+
+    private BenchmarkBeans() {}
+
+    static List<ConsParam> batteryConsParams() {
+        return Arrays.asList(new ConsParam("name", "java.lang.String", "Amaron", null),
+                new ConsParam("chargeLeft", "java.lang.Double", "42.0", null));
+    }
+
+    static Map<String, SetterParam> batterySetterParams() {
+        Map<String, SetterParam> params = new HashMap<>();
+        params.put("name", new SetterParam("name", "java.lang.String", "Amaron", null));
+        params.put("chargeLeft", new SetterParam("chargeLeft", "java.lang.Double", "42.0", null));
+        return params;
+    }
+
+    static Map<String, SetterParam> carSetterParams() {
+        Map<String, SetterParam> params = new HashMap<>();
+        params.put("name", new SetterParam("name", "java.lang.String", "Tesla", null));
+        return params;
+    }
+}
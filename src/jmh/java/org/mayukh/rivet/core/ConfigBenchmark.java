@@ -0,0 +1,85 @@
+package org.mayukh.rivet.core;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading bean defs at startup, from synthetic configs of 100, 10k and 100k beans:
+ * the streaming XML reader used by DiContainer.createBeanDefs(), the binary snapshot, and parallel fragments.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    int beans;
+
+    Path config;
+    Path snapshot;
+    Path fragments;
+    long key;
+
+    @Setup(Level.Trial)
+    public void writeConfigs() throws IOException {
+        config = SyntheticConfig.write(beans);
+        key = ConfigSnapshot.key(config);
+        snapshot = Files.createTempFile("rivet-snapshot-", ".bin");
+        snapshot.toFile().deleteOnExit();
+        try (FileChannel channel = FileChannel.open(config, StandardOpenOption.READ)) {
+            ConfigSnapshot.write(snapshot, key, DiContainer.readBeanDefs(channel).values());
+        }
+
+        fragments = Files.createTempDirectory("rivet-fragments-");
+        for (int i = 0; i < 8; i++) {
+            Path fragment = SyntheticConfig.write(beans / 8);
+            Files.write(fragments.resolve("fragment" + i + ".xml"),
+                    new String(Files.readAllBytes(fragment), "UTF-8").replace("name=\"", "name=\"f" + i + "-")
+                            .getBytes("UTF-8"));
+            Files.delete(fragment);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteConfigs() throws IOException {
+        Files.deleteIfExists(config);
+        Files.deleteIfExists(snapshot);
+        for (int i = 0; i < 8; i++) Files.deleteIfExists(fragments.resolve("fragment" + i + ".xml"));
+        Files.deleteIfExists(fragments);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        DiContainer.reset();
+    }
+
+    @Benchmark
+    public Map<String, Bean> streamingReader() throws IOException {
+        try (FileChannel channel = FileChannel.open(config, StandardOpenOption.READ)) {
+            return DiContainer.readBeanDefs(channel);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Bean> snapshot() {
+        return ConfigSnapshot.read(snapshot, ConfigSnapshot.key(config));
+    }
+
+    @Benchmark
+    public Map<String, Bean> fragments() {
+        DiContainer.createBeanDefs(fragments);
+        return DiContainer.getBeanDefs();
+    }
+}
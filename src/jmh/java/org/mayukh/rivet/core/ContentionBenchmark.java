@@ -0,0 +1,51 @@
+package org.mayukh.rivet.core;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getBean() from many threads at once: all threads on the same hot bean, or each on random beans out of many.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentionBenchmark {
+
+    static final int BEANS = 1024;
+
+    String[] names;
+
+    @Setup(Level.Trial)
+    public void createBeans() {
+        DiContainer.reset();
+        names = new String[BEANS];
+        for (int i = 0; i < BEANS; i++) {
+            names[i] = "battery" + i;
+            DiContainer.beanDefs.put(names[i], new Bean(names[i], SyntheticConfig.BATTERY, null,
+                    BenchmarkBeans.batteryConsParams()));
+        }
+        DiContainer.eagerInit();
+    }
+
+    @TearDown(Level.Trial)
+    public void reset() {
+        DiContainer.reset();
+    }
+
+    @Benchmark
+    public Object sameBean() {
+        return DiContainer.getBean("battery0");
+    }
+
+    @Benchmark
+    public Object randomBeans() {
+        return DiContainer.getBean(names[ThreadLocalRandom.current().nextInt(BEANS)]);
+    }
+}
@@ -0,0 +1,40 @@
+package org.mayukh.rivet.core;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bean.create() through its compiled creation plan: the same battery made with cons params, or with setter params.
+ * The beans are prototypes, so that nothing is stored in the beanstore.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CreateBenchmark {
+
+    Bean withConsParams;
+    Bean withSetterParams;
+
+    @Setup(Level.Trial)
+    public void defineBeans() {
+        withConsParams = new Bean("consBattery", SyntheticConfig.BATTERY, null, BenchmarkBeans.batteryConsParams())
+                .scoped("prototype", null, null);
+        withSetterParams = new Bean("setterBattery", SyntheticConfig.BATTERY, BenchmarkBeans.batterySetterParams(),
+                null).scoped("prototype", null, null);
+    }
+
+    @Benchmark
+    public Object consParams() {
+        return withConsParams.create();
+    }
+
+    @Benchmark
+    public Object setterParams() {
+        return withSetterParams.create();
+    }
+}
@@ -0,0 +1,50 @@
+package org.mayukh.rivet.core;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getBean() hits over many singletons, before and after DiContainer.freeze()
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrozenLookupBenchmark {
+
+    static final int BEANS = 1024;
+
+    @Param({"false", "true"})
+    boolean frozen;
+
+    String[] names;
+    int next;
+
+    @Setup(Level.Trial)
+    public void createBeans() {
+        DiContainer.reset();
+        names = new String[BEANS];
+        for (int i = 0; i < BEANS; i++) {
+            names[i] = "battery" + i;
+            DiContainer.beanDefs.put(names[i], new Bean(names[i], SyntheticConfig.BATTERY, null,
+                    BenchmarkBeans.batteryConsParams()));
+        }
+        if (frozen) DiContainer.freeze();
+        else DiContainer.eagerInit();
+    }
+
+    @TearDown(Level.Trial)
+    public void reset() {
+        DiContainer.reset();
+    }
+
+    @Benchmark
+    public Object hit() {
+        return DiContainer.getBean(names[next++ & (BEANS - 1)]);
+    }
+}
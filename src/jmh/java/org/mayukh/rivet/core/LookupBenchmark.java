@@ -0,0 +1,65 @@
+package org.mayukh.rivet.core;
+
+import org.mayukh.rivet.model.ElectricCar;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiContainer.getBean(): hits on created singletons by name and by type, and first-time creation of a singleton.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    @Setup(Level.Trial)
+    public void defineBeans() {
+        DiContainer.reset();
+        DiContainer.beanDefs.put("battery", new Bean("battery", SyntheticConfig.BATTERY, null,
+                BenchmarkBeans.batteryConsParams()));
+        DiContainer.beanDefs.put("car", new Bean("car", SyntheticConfig.CAR, BenchmarkBeans.carSetterParams(), null));
+        DiContainer.getBean("car");
+    }
+
+    @TearDown(Level.Trial)
+    public void reset() {
+        DiContainer.reset();
+    }
+
+    @Benchmark
+    public Object hit() {
+        return DiContainer.getBean("car");
+    }
+
+    @Benchmark
+    public ElectricCar hitByType() {
+        return DiContainer.getBean(ElectricCar.class);
+    }
+
+    @Benchmark
+    public Object miss() {
+        return DiContainer.getBean("undefined");
+    }
+
+    /**
+     * the car is removed from the beanstore before each call, so each call creates it again under its lock;
+     * the battery it refers to stays created
+     */
+    @Benchmark
+    public Object firstCreation(FirstCreation state) {
+        return DiContainer.getBean("car");
+    }
+
+    @State(Scope.Thread)
+    public static class FirstCreation {
+        @Setup(Level.Invocation)
+        public void forgetCar() {
+            DiContainer.beanstore.remove("car");
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.mayukh.rivet.core;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defining a bean, which picks up its @Riveted fields from the compile time index (reflectively for classes not in
+ * the index): a type with an injectable field, and one without.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RivetedScanBenchmark {
+
+    @Benchmark
+    public Bean withRivetedField() {
+        return new Bean("car", SyntheticConfig.CAR, null, null);
+    }
+
+    @Benchmark
+    public Bean withoutRivetedField() {
+        return new Bean("battery", SyntheticConfig.BATTERY, null, null);
+    }
+}
@@ -0,0 +1,43 @@
+package org.mayukh.rivet.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generated rivet configs of any size for the benchmarks: a "battery" bean, then alternately batteries with cons
+ * params, and cars with a setter param and the @Riveted battery injected.
+ */
+final class SyntheticConfig {
+
+    static final String BATTERY = "org.mayukh.rivet.model.Battery";
+    static final String CAR = "org.mayukh.rivet.model.ElectricCar";
+
+    private SyntheticConfig() {}
+
+    static Path write(int beans) throws IOException {
+        Path config = Files.createTempFile("rivet-config-" + beans + "-", ".xml");
+        config.toFile().deleteOnExit();
+        try (Writer out = Files.newBufferedWriter(config, StandardCharsets.UTF_8)) {
+            out.write("<beans>\n");
+            out.write(battery("battery", 0));
+            for (int i = 1; i < beans; i++) {
+                if (i % 2 == 0) out.write(battery("battery" + i, i));
+                else out.write("    <bean name=\"car" + i + "\" type=\"" + CAR + "\">\n" +
+                        "        <setter-param name=\"name\" type=\"java.lang.String\" value=\"Car " + i + "\" />\n" +
+                        "    </bean>\n");
+            }
+            out.write("</beans>\n");
+        }
+        return config;
+    }
+
+    private static String battery(String name, int i) {
+        return "    <bean name=\"" + name + "\" type=\"" + BATTERY + "\">\n" +
+                "        <cons-param name=\"name\" type=\"java.lang.String\" value=\"Battery " + i + "\" />\n" +
+                "        <cons-param name=\"chargeLeft\" type=\"java.lang.Double\" value=\"" + (i % 100) + ".0\" />\n" +
+                "    </bean>\n";
+    }
+}
@@ -1,11 +1,17 @@
 package org.mayukh.rivet.core;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Created by mayukh42 on 11/6/17.
@@ -17,112 +23,349 @@ public class Bean {
     private final String name;
     private String type;
 
-    /* <field name, class type> */
-    private Map<String, SetterParam> setterParams;
-    private List<ConsParam> consParams;
+    /* flat arrays of shared params (see Symbols), rather than a map per bean; null if none */
+    private SetterParam[] setterParams;
+    private ConsParam[] consParams;
+
+    /* factory method creating the objects instead of a cons: an instance method of the factory bean, else a
+       static method of the type; null if none */
+    private String factoryBean;
+    private String factoryMethod;
+
+    /* for generated or registered beans: the factory and its refs, instead of params; for generated ones, the
+       injector setting the refs on what the factory constructed, and the refs the factory needs itself */
+    private Supplier<Object> factory;
+    private Consumer<Object> injector;
+    private Set<String> dependencies;
+    private Set<String> consDependencies;
+
+    /* whether the factory looks up refs which were not declared, so that cycles through it cannot be ruled out */
+    private boolean refsUndeclared;
+
+    /* compiled from the fields above, on first create() */
+    private volatile CreationPlan plan;
+
+    /* once released: the refs of the dropped params, those of cons params first; null until then */
+    private String[] releasedRefs;
+    private int releasedConsRefs;
+    private long releasedFingerprint;
+    private volatile boolean released;
+
+    /* guards first-time creation through the container, so that it happens exactly once */
+    private final CreationLock lock = new CreationLock();
+
+    /* lifetime of the created objects; the per thread objects or the pool, for those scopes */
+    private Scope scope = Scope.SINGLETON;
+    private ThreadLocal<Object> threadInstances;
+    private BeanPool pool;
+
+    /* no-arg methods called on every new object, and on a singleton when the container shuts down; null if none */
+    private String initMethod;
+    private String destroyMethod;
+
+    /* 64 bit FNV prime, to combine the hashes of a fingerprint */
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    static final int DEFAULT_POOL_SIZE = 8;
+    static final long DEFAULT_POOL_IDLE_MILLIS = 60_000;
 
     Bean(String name, String type, Map<String, SetterParam> setterParams, List<ConsParam> consParams) {
-        this.name = name;
-        this.type = type;
-        this.setterParams = setterParams;
-        this.consParams = consParams;
+        this.name = Symbols.intern(name);
+        this.type = Symbols.intern(type);
+        Map<String, SetterParam> allSetterParams = setterParams == null ? null : new LinkedHashMap<>(setterParams);
+        allSetterParams = addInjectablesToSetterParmas(allSetterParams);
+        if (allSetterParams != null && !allSetterParams.isEmpty()) {
+            this.setterParams = new SetterParam[allSetterParams.size()];
+            int i = 0;
+            for (SetterParam param : allSetterParams.values()) this.setterParams[i++] = Symbols.intern(param);
+        }
+        if (consParams != null) {
+            this.consParams = new ConsParam[consParams.size()];
+            for (int i = 0; i < this.consParams.length; i++) this.consParams[i] = Symbols.intern(consParams.get(i));
+        }
+    }
 
-        addInjectablesToSetterParmas();
+    private Bean(String name, String type, Set<String> consDependencies, Set<String> dependencies,
+                 Supplier<Object> factory, Consumer<Object> injector) {
+        this.name = Symbols.intern(name);
+        this.type = Symbols.intern(type);
+        this.consDependencies = consDependencies;
+        this.dependencies = dependencies;
+        this.factory = factory;
+        this.injector = injector;
     }
 
     /**
-     * pick injectable fields and add to setter params
+     * bean created by a registered factory, which needs all of its refs before the object exists
      */
-    private void addInjectablesToSetterParmas() {
+    static Bean generated(String name, String type, Set<String> dependencies, Supplier<Object> factory) {
+        return new Bean(name, type, dependencies, dependencies, factory, null);
+    }
+
+    /**
+     * bean created by a generated factory: construct only needs consDependencies, and the injector sets the other
+     * refs and injectable fields afterwards, so that the constructed object can be referred to early
+     */
+    static Bean generated(String name, String type, Set<String> consDependencies, Set<String> dependencies,
+                          Supplier<Object> construct, Consumer<Object> injector) {
+        return new Bean(name, type, consDependencies, dependencies, construct, injector);
+    }
+
+    /**
+     * mark a registered factory as looking up its refs itself, without declaring them
+     */
+    Bean refsUndeclared() {
+        this.refsUndeclared = true;
+        return this;
+    }
+
+    boolean hasUndeclaredRefs() {
+        return refsUndeclared;
+    }
+
+    /**
+     * set the scope of the bean from the scope, pool-size and pool-idle-millis attributes of its config;
+     * absent (null) attributes keep the defaults
+     */
+    Bean scoped(String scope, String poolSize, String poolIdleMillis) {
+        this.scope = Scope.of(scope);
+        if (this.scope == Scope.THREAD) this.threadInstances = new ThreadLocal<>();
+        if (this.scope == Scope.POOLED) {
+            int size = poolSize == null ? DEFAULT_POOL_SIZE
+                    : (int) number("pool-size", poolSize, Integer.MAX_VALUE);
+            long idleMillis = poolIdleMillis == null ? DEFAULT_POOL_IDLE_MILLIS
+                    : number("pool-idle-millis", poolIdleMillis, Long.MAX_VALUE);
+            this.pool = new BeanPool(name, this::newInstance, this::destroy, size, idleMillis);
+        } else if (poolSize != null || poolIdleMillis != null) {
+            throw new RivetException("Pool attributes of bean " + name + " need scope=\"pooled\"");
+        }
+        return this;
+    }
+
+    /**
+     * set the init-method and destroy-method attributes of the bean's config; both may be null.
+     * Only singletons and pooled objects are destroyed by the container: pooled ones when evicted, or idle at
+     * shutdown. Objects of other scopes belong to their callers.
+     */
+    Bean lifecycle(String initMethod, String destroyMethod) {
+        if (destroyMethod != null && scope != Scope.SINGLETON && scope != Scope.POOLED)
+            throw new RivetException("destroy-method of bean " + name + " needs a singleton or pooled scope, not " +
+                    "scope " + scope.configName());
+        this.initMethod = Symbols.intern(initMethod);
+        this.destroyMethod = Symbols.intern(destroyMethod);
+        return this;
+    }
+
+    /**
+     * set the factory-bean and factory-method attributes of the bean's config; both may be null. The cons params
+     * are passed to the factory method, and the setter params are set on what it returns.
+     */
+    Bean factory(String factoryBean, String factoryMethod) {
+        if (factoryBean != null && factoryMethod == null)
+            throw new RivetException("factory-bean of bean " + name + " needs a factory-method");
+        this.factoryBean = Symbols.intern(factoryBean);
+        this.factoryMethod = Symbols.intern(factoryMethod);
+        return this;
+    }
+
+    private long number(String attribute, String value, long max) {
         try {
-            Class beanType = Class.forName(type);
-            Field[] fields = beanType.getDeclaredFields();
-            for (Field field : fields) {
-                if (field.isAnnotationPresent(Riveted.class)) {
-                    if (this.setterParams == null) this.setterParams = new HashMap<>();
-                    this.setterParams.put(field.getName(), new SetterParam(
-                            // should be of reference type only
-                            field.getName(), field.getType().getName(), null, field.getName()
-                    ));
-                }
+            long number = Long.parseLong(value.trim());
+            if (number <= max) return number;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new RivetException("Invalid " + attribute + " of bean " + name + ": " + value);
+    }
+
+    /**
+     * pick injectable fields, including inherited ones, and add to setter params.
+     * Fields are read from the compile time @Riveted index; classes missing in the index are scanned reflectively,
+     * once per class.
+     * Superclass fields are added first, so that a subclass field of the same name overrides them.
+     */
+    private Map<String, SetterParam> addInjectablesToSetterParmas(Map<String, SetterParam> setterParams) {
+        Deque<RivetedIndex.Entry> hierarchy = new ArrayDeque<>();
+        String current = type;
+        while (current != null && !current.isEmpty() && !"java.lang.Object".equals(current)) {
+            RivetedIndex.Entry entry = RivetedIndex.get(current);
+            if (entry == null) entry = scanInjectables(current);
+            if (entry == null) break;
+            hierarchy.push(entry);
+            current = entry.superclass;
+        }
+
+        for (RivetedIndex.Entry entry : hierarchy) {
+            for (Map.Entry<String, String> field : entry.fields.entrySet()) {
+                if (setterParams == null) setterParams = new LinkedHashMap<>();
+                setterParams.put(field.getKey(), new SetterParam(
+                        // should be of reference type only
+                        field.getKey(), field.getValue(), null, field.getKey(),
+                        entry.lazyFields.contains(field.getKey())
+                ));
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        return setterParams;
     }
 
     /**
-     * create a simple POJO bean object using default cons, i.e. all fields set to default value.
+     * reflective fallback for a class which was not compiled with the index processor; null if it cannot be loaded
      */
-    private Object createPojo() {
-        Object o = null;
+    private static RivetedIndex.Entry scanInjectables(String typeName) {
         try {
-            Class oClass = Class.forName(type);
-            o = oClass.newInstance();
+            return TypeMetadata.of(Types.forName(typeName)).riveted();
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
-        return o;
     }
 
     /**
-     * encapsulates the various object creation methods
+     * encapsulates the various object creation methods.
+     * The creation plan is compiled on first use, and reused for every object created afterwards.
      */
     public Object create() {
-        Object o = null;
-        if (consParams != null) o = createWithCons();
-        else o = createPojo();
-        callSetters(o);
+        if (scope != Scope.SINGLETON) return newInstance();
+        Object o = newInstance(early -> DiContainer.addEarlyReference(name, early));
         DiContainer.addBean(this.name, o);
         return o;
     }
 
     /**
-     * call setter methods on the bean object after creation.
-     * If a bean has cons params and setter params both for same field in xml, the setter will override the value.
+     * a new object of the bean, whatever its scope
      */
-    private void callSetters(Object o) {
-        if (setterParams != null) {
-            try {
-                for (String field : setterParams.keySet()) {
-                    SetterParam param = setterParams.get(field);
-                    Class fieldType = Class.forName(param.getType());
+    Object newInstance() {
+        return newInstance(null);
+    }
 
-                    /* Heavy use of convention */
-                    String methodName = "set" + param.getName().substring(0, 1).toUpperCase() +
-                            param.getName().substring(1);
-                    Method method = o.getClass().getMethod(methodName, fieldType);
+    /**
+     * a new object, passed to constructed (if any) before its setters are called
+     */
+    private Object newInstance(Consumer<Object> constructed) {
+        ContainerMetrics m = DiContainer.metrics;
+        return m == null ? plan().execute(constructed) : m.create(this, constructed);
+    }
 
-                    /* check if the field is already created in the beanstore */
-                    Object beanStoreRef = DiContainer.getBean(param.getName());
-                    if (beanStoreRef != null) method.invoke(o, beanStoreRef);
-                    else method.invoke(o, param.create());
-                }
-            } catch (Exception e) { // lazy for now
-                e.printStackTrace();
-            }
+    /**
+     * compile the creation plan once; racing threads may compile it twice, but the result is the same
+     */
+    CreationPlan plan() {
+        CreationPlan p = plan;
+        if (p == null) {
+            if (released) throw new RivetException("Definition of bean " + name + " was released");
+            p = factory != null ? CreationPlan.of(factory, injector)
+                    : CreationPlan.compile(type, factoryBean, factoryMethod, consParams, setterParams, initMethod);
+            plan = p;
         }
+        return p;
     }
 
     /**
-     * create bean object with cons params
+     * drop the params and the creation plan of a created singleton, which are not needed anymore, keeping only
+     * its refs for the dependency order, and its fingerprint for reloads; e.g. for configs with many beans.
+     * A released bean cannot create another object.
      */
-    private Object createWithCons() {
-        Object o = null;
+    synchronized void release() {
+        if (released || scope != Scope.SINGLETON) return;
+        releasedFingerprint = fingerprint();
+        if (dependencies == null) {
+            Set<String> refs = getConsDependencies();
+            releasedConsRefs = refs.size();
+            refs.addAll(getDependencies());
+            releasedRefs = refs.toArray(new String[0]);
+        }
+        released = true;
+        setterParams = null;
+        consParams = null;
+        factory = null;
+        injector = null;
+        plan = null;
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * estimated bytes held by this def alone: the bean, its lock, its param arrays and its creation plan. Strings
+     * and params are shared (see Symbols), and counted once for all defs.
+     */
+    long footprint() {
+        long bytes = Footprint.shallow(Bean.class) + Footprint.shallow(lock.getClass());
+        SetterParam[] setters = setterParams;
+        ConsParam[] cons = consParams;
+        String[] refs = releasedRefs;
+        if (setters != null) bytes += Footprint.array(setters.length);
+        if (cons != null) bytes += Footprint.array(cons.length);
+        if (refs != null) bytes += Footprint.array(refs.length);
+        CreationPlan p = plan;
+        if (p != null) bytes += p.footprint();
+        return bytes;
+    }
+
+    /**
+     * release what an object of the bean holds: call its destroy-method, else close() it if it is AutoCloseable
+     */
+    void destroy(Object o) throws Exception {
+        if (destroyMethod == null) {
+            if (o instanceof AutoCloseable) ((AutoCloseable) o).close();
+            return;
+        }
         try {
-            Class oClass = Class.forName(type);
-            Class[] consParamTypes = new Class[consParams.size()];
-            for (int i = 0; i < consParams.size(); i++)
-                consParamTypes[i] = Class.forName(consParams.get(i).getType());
-
-            Constructor cons = oClass.getDeclaredConstructor(consParamTypes);
-            Object[] consObjects = consParams.stream().map(ConsParam::create).toArray();
-            o = cons.newInstance(consObjects);
-        } catch (Exception e) { // lazy for now
-            e.printStackTrace();
+            o.getClass().getMethod(destroyMethod).invoke(o);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
         }
+    }
 
-        return o;
+    /**
+     * whether another bean def creates the same objects: same type, scope, lifecycle and factory methods and
+     * params, and factory for generated or registered beans. Released defs are compared by their fingerprint.
+     */
+    boolean sameDefinition(Bean other) {
+        if (other == this) return true;
+        if (other == null) return false;
+        if (released || other.released) return fingerprint() == other.fingerprint();
+        if (factory != other.factory || injector != other.injector) return false;
+        if (!Objects.equals(type, other.type) || scope != other.scope) return false;
+        if (!Objects.equals(initMethod, other.initMethod) || !Objects.equals(destroyMethod, other.destroyMethod))
+            return false;
+        if (!Objects.equals(factoryBean, other.factoryBean) || !Objects.equals(factoryMethod, other.factoryMethod))
+            return false;
+        if (pool != null && (pool.getMaxSize() != other.pool.getMaxSize() ||
+                pool.getIdleMillis() != other.pool.getIdleMillis())) return false;
+
+        ConsParam[] otherCons = other.consParams;
+        if (consParams == null || otherCons == null) {
+            if (consParams != otherCons) return false;
+        } else {
+            if (consParams.length != otherCons.length) return false;
+            for (int i = 0; i < consParams.length; i++)
+                if (!consParams[i].sameDefinition(otherCons[i])) return false;
+        }
+
+        int size = setterParams == null ? 0 : setterParams.length;
+        if (size != (other.setterParams == null ? 0 : other.setterParams.length)) return false;
+        for (int i = 0; i < size; i++)
+            if (!setterParams[i].sameDefinition(other.getSetterParam(setterParams[i].getName()))) return false;
+        return true;
+    }
+
+    /**
+     * hash of everything sameDefinition() compares, setter params in any order; the one taken on release, once
+     * the params are released
+     */
+    synchronized long fingerprint() {
+        if (released) return releasedFingerprint;
+        long h = Objects.hash(type, scope, initMethod, destroyMethod, factoryBean, factoryMethod,
+                factory == null ? 0 : System.identityHashCode(factory),
+                injector == null ? 0 : System.identityHashCode(injector));
+        if (pool != null) h = (h * FINGERPRINT_PRIME + pool.getMaxSize()) * FINGERPRINT_PRIME + pool.getIdleMillis();
+        h = h * FINGERPRINT_PRIME + (consParams == null ? -1 : Arrays.hashCode(consParams));
+        long setters = 0;
+        if (setterParams != null) for (SetterParam param : setterParams) setters += param.hashCode();
+        return h * FINGERPRINT_PRIME + setters;
     }
 
     @Override
@@ -130,8 +373,10 @@ public class Bean {
         return "Bean{" +
                 "\n\tname=" + name +
                 ", \n\ttype=" + type +
-                ", \n\tsetterParams=" + setterParams +
-                ", \n\tconsParams=" + consParams +
+                (factoryMethod == null ? "" : ", \n\tfactory=" + (factoryBean == null ? type : factoryBean) + "." +
+                        factoryMethod) +
+                ", \n\tsetterParams=" + (released ? "released" : Arrays.toString(setterParams)) +
+                ", \n\tconsParams=" + (released ? "released" : Arrays.toString(consParams)) +
                 "\n}";
     }
 
@@ -143,7 +388,93 @@ public class Bean {
         return type;
     }
 
+    /**
+     * names of the beans this bean refers to, through its factory bean, cons params or setter params, and which are
+     * needed to create it; lazy refs are not, since they are looked up on first use
+     */
+    synchronized Set<String> getDependencies() {
+        if (this.dependencies != null) return this.dependencies;
+        if (released) return new LinkedHashSet<>(Arrays.asList(releasedRefs));
+        Set<String> dependencies = new LinkedHashSet<>();
+        if (factoryBean != null) dependencies.add(factoryBean);
+        if (consParams != null)
+            for (ConsParam param : consParams)
+                if (param.getRef() != null && !param.isLazy()) dependencies.add(param.getRef());
+        if (setterParams != null)
+            for (SetterParam param : setterParams)
+                if (param.getRef() != null && !param.isLazy()) dependencies.add(param.getRef());
+        return dependencies;
+    }
+
+    /**
+     * the dependencies needed before an object is constructed, i.e. before its setters can take early references:
+     * its factory bean and the refs of its cons params, or all of them for a registered factory
+     */
+    synchronized Set<String> getConsDependencies() {
+        if (this.dependencies != null) return this.consDependencies;
+        if (released) return new LinkedHashSet<>(Arrays.asList(releasedRefs).subList(0, releasedConsRefs));
+        Set<String> dependencies = new LinkedHashSet<>();
+        if (factoryBean != null) dependencies.add(factoryBean);
+        if (consParams != null)
+            for (ConsParam param : consParams)
+                if (param.getRef() != null && !param.isLazy()) dependencies.add(param.getRef());
+        return dependencies;
+    }
+
+    /**
+     * cons params in order; null for the default cons, or once released
+     */
+    ConsParam[] getConsParams() {
+        return consParams;
+    }
+
+    /**
+     * null if none, or once released
+     */
+    SetterParam[] getSetterParams() {
+        return setterParams;
+    }
+
+    CreationLock getLock() {
+        return lock;
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    ThreadLocal<Object> getThreadInstances() {
+        return threadInstances;
+    }
+
+    BeanPool getPool() {
+        return pool;
+    }
+
+    String getInitMethod() {
+        return initMethod;
+    }
+
+    String getDestroyMethod() {
+        return destroyMethod;
+    }
+
+    String getFactoryBean() {
+        return factoryBean;
+    }
+
+    String getFactoryMethod() {
+        return factoryMethod;
+    }
+
+    /**
+     * the setter param of that name, null if none; a scan, since beans have a few params at most
+     */
     public SetterParam getSetterParam(String param) {
-        return setterParams.get(param);
+        SetterParam[] params = setterParams;
+        if (params != null)
+            for (SetterParam p : params)
+                if (p.getName().equals(param)) return p;
+        return null;
     }
 }
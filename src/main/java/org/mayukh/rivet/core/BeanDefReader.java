@@ -0,0 +1,292 @@
+package org.mayukh.rivet.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming (pull) reader of the rivet config schema: <beans>/<bean>/<cons-param>/<setter-param>.
+ *
+ * Bean defs are built one by one in a single pass over the channel, through fixed size buffers, so memory use is
+ * bounded by the largest bean def rather than the size of the config. Comments, processing instructions and
+ * doctype declarations are skipped; elements other than the schema ones are ignored with their contents. End tags
+ * have to match their start tags, and character references have to be valid, as for the XML parser.
+ */
+final class BeanDefReader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private boolean eof;
+    private int pushback = -1;
+    private int line = 1;
+
+    /* current tag */
+    private final StringBuilder text = new StringBuilder();
+    private String tagName;
+    private boolean closing;
+    private boolean selfClosing;
+    private Map<String, String> attributes;
+
+    /* names of the elements open around the current position, innermost first; empty outside the root */
+    private final Deque<String> open = new ArrayDeque<>();
+    private boolean done;
+
+    BeanDefReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        chars.flip();   // empty, in read mode
+    }
+
+    /**
+     * next bean def in the config, or null at the end of it
+     */
+    Bean next() throws IOException {
+        String beanName = null;
+        String beanType = null;
+        Map<String, String> beanAttributes = null;
+        List<ConsParam> consParams = null;
+        Map<String, SetterParam> setterParams = null;
+        boolean inBean = false;
+
+        while (!done && nextTag()) {
+            if (closing) {
+                String expected = open.poll();
+                if (!tagName.equals(expected))
+                    throw error(expected == null ? "Unexpected </" + tagName + ">"
+                            : "Expected </" + expected + ">, found </" + tagName + ">");
+                if (open.isEmpty()) done = true;
+                if (open.size() == 1 && inBean)
+                    return configured(new Bean(beanName, beanType, setterParams, consParams), beanAttributes);
+                continue;
+            }
+
+            int depth = open.size();
+            if (depth == 0 && !"beans".equals(tagName)) {
+                done = true;    // not a rivet config
+                break;
+            }
+            if (depth == 1 && "bean".equals(tagName)) {
+                beanName = attributes.get("name");
+                beanType = attributes.get("type");
+                beanAttributes = attributes;
+                // inline def
+                if (selfClosing) return configured(new Bean(beanName, beanType, null, null), beanAttributes);
+                inBean = true;
+            } else if (depth == 2 && inBean && "cons-param".equals(tagName)) {
+                if (consParams == null) consParams = new ArrayList<>();
+                consParams.add(new ConsParam(attributes.get("name"), attributes.get("type"),
+                        attributes.get("value"), attributes.get("ref"), lazy()));
+            } else if (depth == 2 && inBean && "setter-param".equals(tagName)) {
+                if (setterParams == null) setterParams = new HashMap<>();
+                setterParams.put(attributes.get("name"), new SetterParam(attributes.get("name"),
+                        attributes.get("type"), attributes.get("value"), attributes.get("ref"), lazy()));
+            }
+            if (!selfClosing) open.push(tagName);
+            else if (depth == 0) done = true;
+        }
+
+        if (inBean) throw error("Unexpected end of config inside bean " + beanName);
+        return null;
+    }
+
+    private boolean lazy() {
+        return "true".equals(attributes.get("lazy"));
+    }
+
+    private Bean configured(Bean bean, Map<String, String> beanAttributes) {
+        try {
+            return bean.scoped(beanAttributes.get("scope"), beanAttributes.get("pool-size"),
+                    beanAttributes.get("pool-idle-millis"))
+                    .lifecycle(beanAttributes.get("init-method"), beanAttributes.get("destroy-method"))
+                    .factory(beanAttributes.get("factory-bean"), beanAttributes.get("factory-method"));
+        } catch (RivetException e) {
+            throw new RivetException("Invalid bean " + bean.getName() + " (config line " + line + ")", e);
+        }
+    }
+
+    /**
+     * advance to the next start or end tag, skipping text, comments, processing instructions and declarations.
+     * false at the end of input.
+     */
+    private boolean nextTag() throws IOException {
+        while (true) {
+            int c;
+            do {
+                c = read();
+                if (c < 0) return false;
+            } while (c != '<');
+
+            c = read();
+            if (c == '!') {
+                if (read() == '-' && read() == '-') skipPast("-->");
+                else skipPast(">");
+            } else if (c == '?') {
+                skipPast("?>");
+            } else if (c == '/') {
+                closing = true;
+                selfClosing = false;
+                tagName = readName(skipWhitespace());
+                if (skipWhitespace() != '>') throw error("Expected > after </" + tagName);
+                return true;
+            } else {
+                closing = false;
+                selfClosing = false;
+                tagName = readName(c);
+                readAttributes();
+                return true;
+            }
+        }
+    }
+
+    private void readAttributes() throws IOException {
+        attributes = new HashMap<>();
+        while (true) {
+            int c = skipWhitespace();
+            if (c == '>') return;
+            if (c == '/') {
+                if (read() != '>') throw error("Expected /> in <" + tagName);
+                selfClosing = true;
+                return;
+            }
+            String name = readName(c);
+            if (skipWhitespace() != '=') throw error("Expected = after attribute " + name);
+            int quote = skipWhitespace();
+            if (quote != '"' && quote != '\'') throw error("Expected quoted value of attribute " + name);
+
+            text.setLength(0);
+            for (c = read(); c != quote; c = read()) {
+                if (c < 0) throw error("Unexpected end of config in attribute " + name);
+                text.append((char) c);
+            }
+            attributes.put(name, unescape(text));
+        }
+    }
+
+    private String readName(int first) throws IOException {
+        text.setLength(0);
+        int c = first;
+        while (c >= 0 && !Character.isWhitespace(c) && c != '>' && c != '/' && c != '=') {
+            text.append((char) c);
+            c = read();
+        }
+        if (c < 0) throw error("Unexpected end of config");
+        if (text.length() == 0) throw error("Expected a name");
+        pushback = c;
+        return text.toString();
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c = read();
+        while (c >= 0 && Character.isWhitespace(c)) c = read();
+        if (c < 0) throw error("Unexpected end of config");
+        return c;
+    }
+
+    private void skipPast(String end) throws IOException {
+        int matched = 0;
+        while (matched < end.length()) {
+            int c = read();
+            if (c < 0) throw error("Unexpected end of config, expected " + end);
+            if (c == end.charAt(matched)) matched++;
+            else matched = c == end.charAt(0) ? 1 : 0;
+        }
+    }
+
+    private String unescape(CharSequence value) {
+        int amp = -1;
+        for (int i = 0; i < value.length() && amp < 0; i++) if (value.charAt(i) == '&') amp = i;
+        if (amp < 0) return value.toString();
+
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int semicolon = c == '&' ? indexOf(value, ';', i) : -1;
+            if (semicolon < 0) {
+                unescaped.append(c);
+                continue;
+            }
+            String entity = value.subSequence(i + 1, semicolon).toString();
+            switch (entity) {
+                case "amp": unescaped.append('&'); break;
+                case "lt": unescaped.append('<'); break;
+                case "gt": unescaped.append('>'); break;
+                case "quot": unescaped.append('"'); break;
+                case "apos": unescaped.append('\''); break;
+                default:
+                    if (entity.startsWith("#")) unescaped.appendCodePoint(codePoint(entity));
+                    else unescaped.append('&').append(entity).append(';');
+            }
+            i = semicolon;
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * code point of a character reference, #decimal or #xhex
+     */
+    private int codePoint(String entity) {
+        try {
+            int codePoint = entity.startsWith("#x") ? Integer.parseInt(entity.substring(2), 16)
+                    : Integer.parseInt(entity.substring(1));
+            if (Character.isValidCodePoint(codePoint)) return codePoint;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw error("Invalid character reference &" + entity + ";");
+    }
+
+    private static int indexOf(CharSequence value, char c, int from) {
+        for (int i = from; i < value.length(); i++) if (value.charAt(i) == c) return i;
+        return -1;
+    }
+
+    private int read() throws IOException {
+        if (pushback >= 0) {
+            int c = pushback;
+            pushback = -1;
+            return c;
+        }
+        if (!chars.hasRemaining() && !fill()) return -1;
+        char c = chars.get();
+        if (c == '\n') line++;
+        return c;
+    }
+
+    /**
+     * decode the next chunk of the channel into the char buffer; false at the end of input
+     */
+    private boolean fill() throws IOException {
+        chars.clear();
+        while (chars.position() == 0) {
+            if (!eof && channel.read(bytes) < 0) eof = true;
+            bytes.flip();
+            decoder.decode(bytes, chars, eof);
+            bytes.compact();
+            if (eof) {
+                decoder.flush(chars);
+                break;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    private RivetException error(String message) {
+        return new RivetException(message + " (config line " + line + ")");
+    }
+}
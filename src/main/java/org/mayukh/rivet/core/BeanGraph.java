@@ -0,0 +1,229 @@
+package org.mayukh.rivet.core;
+
+import java.util.*;
+
+/**
+ * Dependency graph of bean definitions: an edge a -> b means bean a refers to bean b.
+ * Refs to beans which are not defined are not part of the graph.
+ *
+ * Cycles are allowed as long as they only go through setters: the beans of such a cycle are resolved through
+ * early references (see DiContainer). A cycle through a cons cannot be resolved.
+ */
+final class BeanGraph {
+
+    /* <bean name, names of defined beans it refers to> */
+    private final Map<String, Set<String>> dependencies = new TreeMap<>();
+
+    /* <bean name, names of defined beans it needs to construct an object, before its setters> */
+    private final Map<String, Set<String>> consDependencies = new HashMap<>();
+
+    /* <bean name, names of beans referring to it> */
+    private final Map<String, Set<String>> dependents = new TreeMap<>();
+
+    /* last layer of layers(), if it has beans in setter cycles */
+    private List<String> sequential;
+
+    BeanGraph(Map<String, Bean> beanDefs) {
+        for (String name : beanDefs.keySet()) {
+            dependencies.put(name, new TreeSet<>());
+            dependents.put(name, new TreeSet<>());
+        }
+        for (Bean bean : beanDefs.values()) {
+            for (String ref : bean.getDependencies()) {
+                if (!beanDefs.containsKey(ref)) continue;
+                dependencies.get(bean.getName()).add(ref);
+                dependents.get(ref).add(bean.getName());
+            }
+            consDependencies.put(bean.getName(), bean.getConsDependencies());
+        }
+    }
+
+    Set<String> getDependencies(String name) {
+        return dependencies.get(name);
+    }
+
+    Set<String> getDependents(String name) {
+        return dependents.get(name);
+    }
+
+    /**
+     * topological sort into layers (Kahn's algorithm): a bean only depends on beans of earlier layers,
+     * so all beans of a layer can be created independently of each other.
+     * Beans in setter cycles, and the beans depending on them, cannot be sorted; they make up a last layer, whose
+     * beans are to be created one after the other (see isSequential()).
+     * @throws RivetException for cycles through a cons
+     */
+    List<List<String>> layers() {
+        Map<String, Integer> pending = new HashMap<>();
+        List<String> current = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+            pending.put(entry.getKey(), entry.getValue().size());
+            if (entry.getValue().isEmpty()) current.add(entry.getKey());
+        }
+
+        List<List<String>> layers = new ArrayList<>();
+        int sorted = 0;
+        while (!current.isEmpty()) {
+            layers.add(current);
+            sorted += current.size();
+            List<String> next = new ArrayList<>();
+            for (String name : current) {
+                for (String dependent : dependents.get(name)) {
+                    if (pending.merge(dependent, -1, Integer::sum) == 0) next.add(dependent);
+                }
+            }
+            Collections.sort(next);
+            current = next;
+        }
+
+        if (sorted < dependencies.size()) {
+            List<List<String>> cycles = cycles();
+            if (!cycles.isEmpty())
+                throw new RivetException("Circular references between beans through cons " + paths(cycles));
+            sequential = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : new TreeMap<>(pending).entrySet())
+                if (entry.getValue() > 0) sequential.add(entry.getKey());
+            layers.add(sequential);
+        }
+        return layers;
+    }
+
+    /**
+     * whether the layer has beans in setter cycles, so that its beans cannot be created in parallel
+     */
+    boolean isSequential(List<String> layer) {
+        return layer == sequential;
+    }
+
+    /**
+     * cycles which cannot be resolved, because they go through a cons; one per group of beans which refer to each
+     * other (strongly connected component), as the path a, b, ..., a
+     */
+    List<List<String>> cycles() {
+        Map<String, Integer> components = components();
+        List<List<String>> cycles = new ArrayList<>();
+        Set<Integer> reported = new HashSet<>();
+        for (String name : dependencies.keySet()) {
+            Integer component = components.get(name);
+            if (reported.contains(component)) continue;
+            for (String ref : consDependencies.get(name)) {
+                if (!component.equals(components.get(ref))) continue;
+                List<String> cycle = path(ref, name, component, components);
+                cycle.add(0, name);
+                cycles.add(cycle);
+                reported.add(component);
+                break;
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * whether beans refer to each other in a cycle, through cons or setters
+     */
+    boolean hasCycles() {
+        Map<String, Integer> components = components();
+        if (new HashSet<>(components.values()).size() < components.size()) return true;
+        for (Map.Entry<String, Set<String>> entry : dependencies.entrySet())
+            if (entry.getValue().contains(entry.getKey())) return true;
+        return false;
+    }
+
+    /**
+     * <bean name, names of all beans in its cycle, sorted>, for the beans which refer to each other in a cycle of
+     * two or more beans
+     */
+    Map<String, List<String>> cycleMembers() {
+        Map<Integer, List<String>> members = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : components().entrySet())
+            members.computeIfAbsent(entry.getValue(), c -> new ArrayList<>()).add(entry.getKey());
+        Map<String, List<String>> cycleMembers = new HashMap<>();
+        for (List<String> cycle : members.values()) {
+            if (cycle.size() < 2) continue;
+            Collections.sort(cycle);
+            List<String> sorted = Collections.unmodifiableList(cycle);
+            for (String name : cycle) cycleMembers.put(name, sorted);
+        }
+        return cycleMembers;
+    }
+
+    /**
+     * strongly connected component of every bean (Tarjan's algorithm, iteratively, in linear time): beans in the same
+     * component refer to each other, directly or transitively
+     */
+    private Map<String, Integer> components() {
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> low = new HashMap<>();
+        Map<String, Integer> components = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Deque<String> path = new ArrayDeque<>();
+        Deque<Iterator<String>> pending = new ArrayDeque<>();
+
+        for (String root : dependencies.keySet()) {
+            if (index.containsKey(root)) continue;
+            visit(root, index, low, stack, path, pending);
+            while (!pending.isEmpty()) {
+                String name = path.peek();
+                Iterator<String> next = pending.peek();
+                if (next.hasNext()) {
+                    String ref = next.next();
+                    if (!index.containsKey(ref)) visit(ref, index, low, stack, path, pending);
+                    else if (!components.containsKey(ref)) low.put(name, Math.min(low.get(name), index.get(ref)));
+                    continue;
+                }
+                pending.pop();
+                path.pop();
+                if (low.get(name).equals(index.get(name))) {
+                    int component = components.size();
+                    String member;
+                    do {
+                        member = stack.pop();
+                        components.put(member, component);
+                    } while (!member.equals(name));
+                }
+                if (!path.isEmpty()) low.put(path.peek(), Math.min(low.get(path.peek()), low.get(name)));
+            }
+        }
+        return components;
+    }
+
+    private void visit(String name, Map<String, Integer> index, Map<String, Integer> low, Deque<String> stack,
+                       Deque<String> path, Deque<Iterator<String>> pending) {
+        index.put(name, index.size());
+        low.put(name, index.get(name));
+        stack.push(name);
+        path.push(name);
+        pending.push(dependencies.get(name).iterator());
+    }
+
+    /**
+     * shortest path of refs from one bean to another, within their component (breadth first search)
+     */
+    private List<String> path(String from, String to, Integer component, Map<String, Integer> components) {
+        Map<String, String> previous = new HashMap<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(from);
+        previous.put(from, null);
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            if (name.equals(to)) break;
+            for (String ref : dependencies.get(name)) {
+                if (previous.containsKey(ref) || !component.equals(components.get(ref))) continue;
+                previous.put(ref, name);
+                queue.add(ref);
+            }
+        }
+        LinkedList<String> path = new LinkedList<>();
+        for (String name = to; name != null; name = previous.get(name)) path.addFirst(name);
+        return path;
+    }
+
+    /**
+     * cycles as "a -> b -> a"
+     */
+    static List<String> paths(List<List<String>> cycles) {
+        List<String> paths = new ArrayList<>(cycles.size());
+        for (List<String> cycle : cycles) paths.add(String.join(" -> ", cycle));
+        return paths;
+    }
+}
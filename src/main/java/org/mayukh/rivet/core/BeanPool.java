@@ -0,0 +1,192 @@
+package org.mayukh.rivet.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of the objects of a pooled bean.
+ *
+ * At most maxSize objects exist at a time; borrow() blocks while all of them are borrowed. Given back objects are
+ * reused most recently returned first, so that few objects stay warm; objects idle for longer than the idle time
+ * are evicted, when the pool is next used. Objects are created on demand, outside the pool lock.
+ *
+ * Evicted objects are destroyed like singletons at shutdown, through the destroy-method of the bean or close(),
+ * outside the pool lock; so are the idle objects at shutdown (see destroyIdle()). Borrowed objects belong to their
+ * borrowers until given back.
+ */
+final class BeanPool {
+
+    private final String name;
+    private final Supplier<Object> factory;
+    private final Destroyer destroyer;
+    private final int maxSize;
+    private final long idleMillis;
+    private final long idleNanos;
+
+    /* one permit per object that may still be borrowed */
+    private final Semaphore permits;
+
+    /* guarded by this; most recently returned first */
+    private final Deque<Idle> idle = new ArrayDeque<>();
+    private final Set<Object> borrowed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /* what destroying evicted objects threw since the last destroyIdle(), others suppressed in it; guarded by this */
+    private Exception evictionFailure;
+
+    /**
+     * releases what an object holds
+     */
+    interface Destroyer {
+        void destroy(Object o) throws Exception;
+    }
+
+    private static final class Idle {
+        final Object object;
+        final long since;
+
+        Idle(Object object, long since) {
+            this.object = object;
+            this.since = since;
+        }
+    }
+
+    /**
+     * @param idleMillis time after which an idle object is evicted; 0 or less to keep idle objects
+     */
+    BeanPool(String name, Supplier<Object> factory, Destroyer destroyer, int maxSize, long idleMillis) {
+        if (maxSize < 1) throw new RivetException("Pool size of bean " + name + " should be at least 1: " + maxSize);
+        this.name = name;
+        this.factory = factory;
+        this.destroyer = destroyer;
+        this.maxSize = maxSize;
+        this.idleMillis = idleMillis;
+        this.idleNanos = idleMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(idleMillis) : Long.MAX_VALUE;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * an idle object, or a new one if there is none; waits while maxSize objects are borrowed
+     */
+    Object borrow() {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RivetException("Interrupted while waiting for pooled bean " + name, e);
+        }
+
+        Object o = null;
+        List<Object> evicted;
+        try {
+            synchronized (this) {
+                evicted = evict(System.nanoTime());
+                Idle reused = idle.pollFirst();
+                if (reused != null) {
+                    o = reused.object;
+                    borrowed.add(o);
+                }
+            }
+            destroyEvicted(evicted);
+            if (o != null) return o;
+            o = factory.get();
+            synchronized (this) {
+                borrowed.add(o);
+            }
+            return o;
+        } finally {
+            if (o == null) permits.release();
+        }
+    }
+
+    /**
+     * give back a borrowed object, to be reused by the next borrow()
+     */
+    void giveBack(Object o) {
+        List<Object> evicted;
+        synchronized (this) {
+            if (!borrowed.remove(o)) throw new RivetException("Object was not borrowed from pooled bean " + name);
+            long now = System.nanoTime();
+            idle.addFirst(new Idle(o, now));
+            evicted = evict(now);
+        }
+        permits.release();
+        destroyEvicted(evicted);
+    }
+
+    /**
+     * take out objects idle for longer than the idle time, to be destroyed outside the lock; the oldest are at the
+     * end
+     */
+    private List<Object> evict(long now) {
+        List<Object> evicted = Collections.emptyList();
+        while (!idle.isEmpty() && now - idle.peekLast().since > idleNanos) {
+            if (evicted.isEmpty()) evicted = new ArrayList<>();
+            evicted.add(idle.pollLast().object);
+        }
+        return evicted;
+    }
+
+    /**
+     * failures are kept for the next destroyIdle(), since the borrower or giver has nothing to do with them
+     */
+    private void destroyEvicted(List<Object> evicted) {
+        for (Object o : evicted) {
+            try {
+                destroyer.destroy(o);
+            } catch (Exception e) {
+                synchronized (this) {
+                    if (evictionFailure == null) evictionFailure = e;
+                    else evictionFailure.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * destroy all idle objects, e.g. at shutdown; the pool stays usable. Throws the first failure, of these or of
+     * evicted objects since the last call, with the others suppressed in it.
+     */
+    void destroyIdle() throws Exception {
+        List<Object> objects = new ArrayList<>();
+        Exception failure;
+        synchronized (this) {
+            for (Idle i : idle) objects.add(i.object);
+            idle.clear();
+            failure = evictionFailure;
+            evictionFailure = null;
+        }
+        for (Object o : objects) {
+            try {
+                destroyer.destroy(o);
+            } catch (Exception e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    synchronized int idleCount() {
+        return idle.size();
+    }
+
+    synchronized int borrowedCount() {
+        return borrowed.size();
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    long getIdleMillis() {
+        return idleMillis;
+    }
+}
@@ -0,0 +1,138 @@
+package org.mayukh.rivet.core;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Container overlaying a few beans of its own on a parent: the DiContainer, or another child.
+ *
+ * A lookup checks the beans of the child first, then falls through to the parent, so that a child per tenant or
+ * per request shares every bean of the parent without copying any. Beans defined in the child refer to other
+ * beans the same way, while beans of the parent never see the child. The local maps are only allocated when
+ * the child gets beans of its own, so creating and dropping a child which only looks beans up costs one object.
+ * Local beans can be singletons, one per child, or prototypes; there is nothing to close.
+ */
+public final class ChildContainer implements Function<String, Object> {
+
+    /* null for a child of the DiContainer */
+    private final ChildContainer parent;
+
+    /* local bean defs and objects, allocated on first use */
+    private volatile Map<String, Bean> beanDefs;
+    private volatile Map<String, Object> beanstore;
+
+    /* local beans being created, to catch circular references between them, with the early references of
+       singletons once constructed; guarded by this */
+    private Map<String, Object> creating;
+
+    ChildContainer(ChildContainer parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * a child of this container
+     */
+    public ChildContainer newChild() {
+        return new ChildContainer(this);
+    }
+
+    /**
+     * the bean of this container, else of its parent; null if neither has it
+     */
+    public Object getBean(String ref) {
+        Map<String, Object> store = beanstore;
+        if (store != null) {
+            Object o = store.get(ref);
+            if (o != null) return o;
+        }
+        Map<String, Bean> defs = beanDefs;
+        Bean bean = defs == null ? null : defs.get(ref);
+        if (bean != null) return create(bean);
+        return parent != null ? parent.getBean(ref) : DiContainer.getBean(ref);
+    }
+
+    @Override
+    public Object apply(String ref) {
+        return getBean(ref);
+    }
+
+    /**
+     * add an existing object as a bean of this container, e.g. the tenant or request itself.
+     * It hides any bean of the same name in the parent.
+     */
+    public synchronized void addBean(String ref, Object object) {
+        if (object == null) throw new RivetException("Null bean " + ref);
+        checkNotLocal(ref);
+        store().put(ref, object);
+    }
+
+    /**
+     * add the bean defs of a config file to this container; they hide any bean of the same name in the parent
+     */
+    public void addBeanDefs(Path config) {
+        Map<String, Bean> defs;
+        try (FileChannel channel = FileChannel.open(config, StandardOpenOption.READ)) {
+            defs = DiContainer.readBeanDefs(channel);
+        } catch (IOException e) {
+            throw new RivetException("Cannot read config " + config, e);
+        }
+        for (Bean bean : defs.values()) define(bean);
+    }
+
+    synchronized void define(Bean bean) {
+        Scope scope = bean.getScope();
+        if (scope != Scope.SINGLETON && scope != Scope.PROTOTYPE)
+            throw new RivetException("Bean " + bean.getName() + " of a child container cannot be " +
+                    scope.configName());
+        checkNotLocal(bean.getName());
+        Map<String, Bean> defs = beanDefs;
+        if (defs == null) beanDefs = defs = new ConcurrentHashMap<>();
+        defs.put(bean.getName(), bean);
+    }
+
+    private void checkNotLocal(String ref) {
+        Map<String, Bean> defs = beanDefs;
+        Map<String, Object> store = beanstore;
+        if ((defs != null && defs.containsKey(ref)) || (store != null && store.containsKey(ref)))
+            throw new RivetException("Duplicate bean names [" + ref + "]");
+    }
+
+    private Map<String, Object> store() {
+        Map<String, Object> store = beanstore;
+        if (store == null) beanstore = store = new ConcurrentHashMap<>();
+        return store;
+    }
+
+    /**
+     * local beans are created under the lock of the child, singletons exactly once; refs are resolved through
+     * the child, so that they see its beans first. Setter cycles are resolved through early references, as in the
+     * DiContainer.
+     */
+    private synchronized Object create(Bean bean) {
+        String ref = bean.getName();
+        boolean singleton = bean.getScope() == Scope.SINGLETON;
+        if (singleton && beanstore != null && beanstore.containsKey(ref)) return beanstore.get(ref);
+
+        if (creating == null) creating = new HashMap<>();
+        if (creating.containsKey(ref)) {
+            Object early = creating.get(ref);
+            if (early == null) throw new RivetException("Circular reference to bean " + ref);
+            return early;
+        }
+        creating.put(ref, null);
+        Object o;
+        try {
+            o = bean.plan().executeWith(this, singleton ? early -> creating.put(ref, early) : null);
+        } finally {
+            creating.remove(ref);
+        }
+        if (singleton) store().put(ref, o);
+        return o;
+    }
+}
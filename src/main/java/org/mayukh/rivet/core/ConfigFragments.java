@@ -0,0 +1,147 @@
+package org.mayukh.rivet.core;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Bean defs split over many config fragments: files in a directory, or resources on the classpath.
+ * Fragments are parsed in parallel, then merged in a fixed order, so that duplicate bean names are always
+ * reported the same way, whichever fragment finished parsing first.
+ */
+final class ConfigFragments {
+
+    /**
+     * a config fragment: where it comes from, and how to open it
+     */
+    interface Fragment {
+        String source();
+
+        ReadableByteChannel open() throws IOException;
+    }
+
+    private ConfigFragments() {}
+
+    /**
+     * all .xml files under the directory, sorted by path
+     */
+    static List<Fragment> inDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(path -> Files.isRegularFile(path) && path.toString().endsWith(".xml"))
+                    .sorted()
+                    .map(ConfigFragments::file)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RivetException("Cannot list config fragments in " + directory, e);
+        }
+    }
+
+    private static Fragment file(Path path) {
+        return new Fragment() {
+            public String source() {
+                return path.toString();
+            }
+
+            public ReadableByteChannel open() throws IOException {
+                return FileChannel.open(path, StandardOpenOption.READ);
+            }
+        };
+    }
+
+    /**
+     * every copy of the resources on the classpath (e.g. one per module jar), in the given resource order
+     */
+    static List<Fragment> onClasspath(ClassLoader loader, String... resources) {
+        List<Fragment> fragments = new ArrayList<>();
+        try {
+            for (String resource : resources) {
+                Enumeration<URL> urls = loader.getResources(resource);
+                if (!urls.hasMoreElements()) throw new RivetException("Config resource not found: " + resource);
+                while (urls.hasMoreElements()) fragments.add(url(urls.nextElement()));
+            }
+        } catch (IOException e) {
+            throw new RivetException("Cannot list config resources " + Arrays.toString(resources), e);
+        }
+        return fragments;
+    }
+
+    private static Fragment url(URL url) {
+        return new Fragment() {
+            public String source() {
+                return url.toString();
+            }
+
+            public ReadableByteChannel open() throws IOException {
+                return Channels.newChannel(url.openStream());
+            }
+        };
+    }
+
+    /**
+     * parse all fragments in parallel, and merge their bean defs in fragment order.
+     * Fails listing every bean name defined more than once, across fragments or with the existing bean defs.
+     */
+    static Map<String, Bean> load(List<Fragment> fragments, Map<String, Bean> existing, ExecutorService executor) {
+        List<Callable<Map<String, Bean>>> tasks = new ArrayList<>(fragments.size());
+        for (Fragment fragment : fragments) {
+            tasks.add(() -> {
+                try (ReadableByteChannel channel = fragment.open()) {
+                    return DiContainer.readBeanDefs(channel);
+                } catch (RuntimeException e) {
+                    throw new RivetException("Invalid config fragment " + fragment.source(), e);
+                }
+            });
+        }
+
+        List<Future<Map<String, Bean>>> results;
+        try {
+            results = executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RivetException("Loading config fragments interrupted", e);
+        }
+
+        Map<String, Bean> merged = new LinkedHashMap<>();
+        Map<String, String> sources = new HashMap<>();
+        Set<String> conflicts = new TreeSet<>();
+        for (int i = 0; i < fragments.size(); i++) {
+            String source = fragments.get(i).source();
+            for (Bean bean : get(results.get(i), source).values()) {
+                String name = bean.getName();
+                String firstSource = existing.containsKey(name) ? "previously loaded bean defs" : sources.get(name);
+                if (firstSource != null) {
+                    conflicts.add(name + " (" + firstSource + ", " + source + ")");
+                    continue;
+                }
+                merged.put(name, bean);
+                sources.put(name, source);
+            }
+        }
+        if (!conflicts.isEmpty()) throw new RivetException("Duplicate bean names " + conflicts);
+        return merged;
+    }
+
+    private static Map<String, Bean> get(Future<Map<String, Bean>> result, String source) {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RivetException("Cannot read config fragment " + source, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RivetException("Loading config fragments interrupted", e);
+        }
+    }
+}
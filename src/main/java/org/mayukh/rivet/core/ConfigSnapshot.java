@@ -0,0 +1,200 @@
+package org.mayukh.rivet.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of resolved bean defs, to skip XML parsing at startup.
+ *
+ * Layout (big endian):
+ *  int magic, int version, long key: checksums of the XML and of the @Riveted index it was made from
+ *  int string count, then per string: int byte length, UTF-8 bytes
+ *  int bean count, then per bean: name, type, scope, pool size, pool idle millis, init method, destroy method,
+ *  factory bean, factory method, cons params, setter params
+ *  params: int count, then per param: name, type, value, ref, boolean lazy
+ * Strings are written once in the string table, and referred to by index (-1 for null), so that repeated
+ * names and types are shared by all beans when loaded.
+ */
+final class ConfigSnapshot {
+
+    private static final int MAGIC = 0x52495654;    // RIVT
+    private static final int VERSION = 6;
+
+    private ConfigSnapshot() {}
+
+    /**
+     * checksum of a config file, read in chunks
+     */
+    static long checksum(Path config) {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(config, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer.array(), 0, buffer.limit());
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new RivetException("Cannot read config " + config, e);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * key of a snapshot made from the config: the checksum of the XML in the high 32 bits, and that of the
+     * @Riveted index, which setter params are derived from, in the low 32 bits
+     */
+    static long key(Path config) {
+        return checksum(config) << 32 | RivetedIndex.checksum();
+    }
+
+    /**
+     * write the snapshot next to its final path, then move it in place, so that readers never see half a file
+     */
+    static void write(Path path, long key, Collection<Bean> beans) {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(beans.size());
+            for (Bean bean : beans) {
+                out.writeInt(index(strings, bean.getName()));
+                out.writeInt(index(strings, bean.getType()));
+                BeanPool pool = bean.getPool();
+                out.writeInt(index(strings, bean.getScope().configName()));
+                out.writeInt(index(strings, pool == null ? null : String.valueOf(pool.getMaxSize())));
+                out.writeInt(index(strings, pool == null ? null : String.valueOf(pool.getIdleMillis())));
+                out.writeInt(index(strings, bean.getInitMethod()));
+                out.writeInt(index(strings, bean.getDestroyMethod()));
+                out.writeInt(index(strings, bean.getFactoryBean()));
+                out.writeInt(index(strings, bean.getFactoryMethod()));
+
+                ConsParam[] consParams = bean.getConsParams();
+                out.writeInt(consParams == null ? -1 : consParams.length);
+                if (consParams != null)
+                    for (ConsParam param : consParams)
+                        writeParam(out, strings, param);
+
+                SetterParam[] setterParams = bean.getSetterParams();
+                out.writeInt(setterParams == null ? -1 : setterParams.length);
+                if (setterParams != null)
+                    for (SetterParam param : setterParams)
+                        writeParam(out, strings, param);
+            }
+            out.flush();
+
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+            try (DataOutputStream file = new DataOutputStream(Files.newOutputStream(temp))) {
+                file.writeInt(MAGIC);
+                file.writeInt(VERSION);
+                file.writeLong(key);
+                file.writeInt(strings.size());
+                for (String string : strings.keySet()) {
+                    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                    file.writeInt(bytes.length);
+                    file.write(bytes);
+                }
+                body.writeTo(file);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();    // the snapshot is only an optimization; the XML is parsed again next time
+        }
+    }
+
+    private static void writeParam(DataOutputStream out, Map<String, Integer> strings, Param param)
+            throws IOException {
+        out.writeInt(index(strings, param.getName()));
+        out.writeInt(index(strings, param.getType()));
+        out.writeInt(index(strings, param.getValue()));
+        out.writeInt(index(strings, param.getRef()));
+        out.writeBoolean(param.isLazy());
+    }
+
+    private static int index(Map<String, Integer> strings, String string) {
+        if (string == null) return -1;
+        Integer index = strings.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.put(string, index);
+        }
+        return index;
+    }
+
+    /**
+     * bean defs from a memory-mapped snapshot, in config order; null if there is no snapshot, it is corrupt,
+     * or it was made from a different XML or @Riveted index (see key())
+     */
+    static Map<String, Bean> read(Path path, long key) {
+        if (!Files.isRegularFile(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getLong() != key) return null;
+
+            String[] strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            int beanCount = in.getInt();
+            Map<String, Bean> defs = new LinkedHashMap<>();
+            for (int b = 0; b < beanCount; b++) {
+                String name = string(strings, in.getInt());
+                String type = string(strings, in.getInt());
+                String scope = string(strings, in.getInt());
+                String poolSize = string(strings, in.getInt());
+                String poolIdleMillis = string(strings, in.getInt());
+                String initMethod = string(strings, in.getInt());
+                String destroyMethod = string(strings, in.getInt());
+                String factoryBean = string(strings, in.getInt());
+                String factoryMethod = string(strings, in.getInt());
+
+                List<ConsParam> consParams = null;
+                int consCount = in.getInt();
+                if (consCount >= 0) {
+                    consParams = new ArrayList<>(consCount);
+                    for (int i = 0; i < consCount; i++)
+                        consParams.add(new ConsParam(string(strings, in.getInt()), string(strings, in.getInt()),
+                                string(strings, in.getInt()), string(strings, in.getInt()), in.get() != 0));
+                }
+
+                Map<String, SetterParam> setterParams = null;
+                int setterCount = in.getInt();
+                if (setterCount >= 0) {
+                    setterParams = new HashMap<>();
+                    for (int i = 0; i < setterCount; i++) {
+                        SetterParam param = new SetterParam(string(strings, in.getInt()), string(strings, in.getInt()),
+                                string(strings, in.getInt()), string(strings, in.getInt()), in.get() != 0);
+                        setterParams.put(param.getName(), param);
+                    }
+                }
+                defs.put(name, new Bean(name, type, setterParams, consParams).scoped(scope, poolSize, poolIdleMillis)
+                        .lifecycle(initMethod, destroyMethod).factory(factoryBean, factoryMethod));
+            }
+            return defs;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException |
+                 RivetException e) {
+            return null;    // unusable snapshot; parse the XML instead
+        }
+    }
+
+    private static String string(String[] strings, int index) {
+        return index < 0 ? null : strings[index];
+    }
+}
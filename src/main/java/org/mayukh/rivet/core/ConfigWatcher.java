@@ -0,0 +1,109 @@
+package org.mayukh.rivet.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a config file, and reloads it into the container whenever it changes, see DiContainer.watchConfig().
+ *
+ * Runs on a daemon thread. Bursts of events (editors often write a file in several steps) are collapsed into one
+ * reload, once the file has been quiet for a moment. A config which fails to load is reported to the listener, and
+ * the container keeps the bean defs of the last good one.
+ */
+public final class ConfigWatcher implements Closeable {
+
+    private static final long QUIET_MILLIS = 50;
+
+    private final Path config;
+    private final Consumer<ReloadReport> listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /* bean names in the config as last loaded */
+    private Set<String> names;
+
+    ConfigWatcher(Path config, Set<String> names, Consumer<ReloadReport> listener) throws IOException {
+        this.config = config.toAbsolutePath();
+        this.names = names;
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.config.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "rivet-config-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = drain(key);
+                // wait for the burst to end
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                    changed |= drain(key);
+                if (changed) reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents())
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || config.getFileName().equals(event.context()))
+                changed = true;
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * a config which fails to load is reported to the listener as a failed ReloadReport; the last good one is kept
+     */
+    private void reload() {
+        long start = System.nanoTime();
+        ReloadReport report;
+        try {
+            Map<String, Bean> next = read(config);
+            report = DiContainer.reload(names, next);
+            names = new HashSet<>(next.keySet());
+        } catch (IOException | RuntimeException e) {
+            report = ReloadReport.failed(e, System.nanoTime() - start);
+        }
+        if (listener != null) listener.accept(report);
+    }
+
+    static Map<String, Bean> read(Path config) throws IOException {
+        try (FileChannel channel = FileChannel.open(config, StandardOpenOption.READ)) {
+            return DiContainer.readBeanDefs(channel);
+        }
+    }
+
+    public Path getConfig() {
+        return config;
+    }
+
+    /**
+     * stop watching
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
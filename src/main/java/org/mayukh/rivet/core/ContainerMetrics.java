@@ -0,0 +1,342 @@
+package org.mayukh.rivet.core;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Instrumentation of the container, enabled with DiContainer.enableMetrics().
+ *
+ * Records lookup hits and misses, the time spent reading config, and the creation of each object: its total time,
+ * split into resolving its refs through the container and running its own cons and setters. Creations nest on a
+ * per thread stack, so that the time a bean waits on its dependencies is not counted as its own. The timings of
+ * the first MAX_BEAN_TIMINGS creations are kept; later ones only add to the counters.
+ * Everything can be exported as a Chrome trace (chrome://tracing, Perfetto), or read through JMX.
+ *
+ * When disabled, the container only reads a null field per lookup miss, hit and creation.
+ */
+public class ContainerMetrics implements ContainerMetricsMBean {
+
+    static final String OBJECT_NAME = "org.mayukh.rivet:type=ContainerMetrics";
+
+    private static final int SLOWEST_BEANS = 10;
+
+    /* timings kept of the first creations, e.g. a startup; later creations, say of prototypes, are only counted */
+    static final int MAX_BEAN_TIMINGS = 100_000;
+
+    /**
+     * creation of one object of a bean
+     */
+    public static final class BeanTiming {
+        private final String name;
+        private final String thread;
+        private final long threadId;
+        private final long startNanos;
+        private final long totalNanos;
+        private final long dependencyNanos;
+
+        BeanTiming(String name, Thread thread, long startNanos, long totalNanos, long dependencyNanos) {
+            this.name = name;
+            this.thread = thread.getName();
+            this.threadId = thread.getId();
+            this.startNanos = startNanos;
+            this.totalNanos = totalNanos;
+            this.dependencyNanos = dependencyNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        /**
+         * start, relative to when metrics were enabled
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * time spent getting the beans it refers to, including creating them
+         */
+        public long getDependencyNanos() {
+            return dependencyNanos;
+        }
+
+        /**
+         * time spent in its own cons and setters
+         */
+        public long getSelfNanos() {
+            return totalNanos - dependencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + TimeUnit.NANOSECONDS.toMicros(getSelfNanos()) + "us self, " +
+                    TimeUnit.NANOSECONDS.toMicros(totalNanos) + "us total";
+        }
+    }
+
+    /**
+     * a config read
+     */
+    private static final class ConfigTiming {
+        final String source;
+        final long threadId;
+        final long startNanos;
+        final long totalNanos;
+
+        ConfigTiming(String source, long threadId, long startNanos, long totalNanos) {
+            this.source = source;
+            this.threadId = threadId;
+            this.startNanos = startNanos;
+            this.totalNanos = totalNanos;
+        }
+    }
+
+    /**
+     * creation in progress on a thread
+     */
+    private static final class Frame {
+        long dependencyNanos;
+    }
+
+    private final long origin = System.nanoTime();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder configNanos = new LongAdder();
+    private final LongAdder instantiationNanos = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder untimed = new LongAdder();
+
+    private final int maxBeanTimings;
+    private final AtomicInteger timed = new AtomicInteger();
+    private final Queue<BeanTiming> beans = new ConcurrentLinkedQueue<>();
+    private final Queue<ConfigTiming> configs = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Deque<Frame>> creating = ThreadLocal.withInitial(ArrayDeque::new);
+
+    ContainerMetrics() {
+        this(MAX_BEAN_TIMINGS);
+    }
+
+    ContainerMetrics(int maxBeanTimings) {
+        this.maxBeanTimings = maxBeanTimings;
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    /**
+     * look up a bean which is not in the beanstore; the time counts as dependency time of the bean being created
+     * by this thread, if any
+     */
+    Object miss(String ref) {
+        misses.increment();
+        Frame parent = creating.get().peek();
+        if (parent == null) return DiContainer.resolve(ref);
+
+        long start = System.nanoTime();
+        try {
+            return DiContainer.resolve(ref);
+        } finally {
+            parent.dependencyNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * create an object of the bean, timing it
+     */
+    Object create(Bean bean, Consumer<Object> constructed) {
+        Deque<Frame> stack = creating.get();
+        Frame frame = new Frame();
+        stack.push(frame);
+        long start = System.nanoTime();
+        try {
+            return bean.plan().execute(constructed);
+        } finally {
+            long total = System.nanoTime() - start;
+            stack.pop();
+            created.increment();
+            // the first check stops the count once full, so that it cannot overflow
+            if (timed.get() < maxBeanTimings && timed.getAndIncrement() < maxBeanTimings)
+                beans.add(new BeanTiming(bean.getName(), Thread.currentThread(), start - origin, total,
+                        frame.dependencyNanos));
+            else untimed.increment();
+            if (stack.isEmpty()) instantiationNanos.add(total);
+        }
+    }
+
+    /**
+     * record reading bean defs from a config source, started at start (System.nanoTime())
+     */
+    void config(String source, long start) {
+        long total = System.nanoTime() - start;
+        configNanos.add(total);
+        configs.add(new ConfigTiming(source, Thread.currentThread().getId(), start - origin, total));
+    }
+
+    public long getLookupHits() {
+        return hits.sum();
+    }
+
+    public long getLookupMisses() {
+        return misses.sum();
+    }
+
+    public long getBeansCreated() {
+        return created.sum();
+    }
+
+    public long getUntimedBeans() {
+        return untimed.sum();
+    }
+
+    public long getConfigNanos() {
+        return configNanos.sum();
+    }
+
+    public long getConfigMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(getConfigNanos());
+    }
+
+    /**
+     * time spent creating objects, excluding nested creations of their dependencies, summed over all threads
+     */
+    public long getInstantiationNanos() {
+        return instantiationNanos.sum();
+    }
+
+    public long getInstantiationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(getInstantiationNanos());
+    }
+
+    /**
+     * creation of every object, in order of completion, up to MAX_BEAN_TIMINGS
+     */
+    public List<BeanTiming> getBeanTimings() {
+        return new ArrayList<>(beans);
+    }
+
+    public String[] getSlowestBeans() {
+        List<BeanTiming> timings = getBeanTimings();
+        timings.sort(Comparator.comparingLong(BeanTiming::getSelfNanos).reversed());
+        String[] slowest = new String[Math.min(SLOWEST_BEANS, timings.size())];
+        for (int i = 0; i < slowest.length; i++) slowest[i] = timings.get(i).toString();
+        return slowest;
+    }
+
+    public String chromeTrace() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeChromeTrace(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * write the timeline of config reads and bean creations as complete ("X") events of the Chrome trace format;
+     * timestamps are in microseconds from when metrics were enabled
+     */
+    public void writeChromeTrace(Writer out) throws IOException {
+        out.write("{\"traceEvents\":[");
+        String separator = "\n";
+        for (ConfigTiming config : configs) {
+            out.write(separator);
+            writeEvent(out, "config " + config.source, "config", config.threadId, config.startNanos,
+                    config.totalNanos, null);
+            separator = ",\n";
+        }
+        Map<Long, String> threads = new TreeMap<>();
+        for (BeanTiming bean : beans) {
+            out.write(separator);
+            writeEvent(out, bean.name, "bean", bean.threadId, bean.startNanos, bean.totalNanos,
+                    "{\"selfMicros\":" + micros(bean.getSelfNanos()) +
+                            ",\"dependencyMicros\":" + micros(bean.dependencyNanos) + "}");
+            threads.put(bean.threadId, bean.thread);
+            separator = ",\n";
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            out.write(separator);
+            out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + thread.getKey() +
+                    ",\"args\":{\"name\":" + quote(thread.getValue()) + "}}");
+        }
+        out.write("\n]}\n");
+    }
+
+    private static void writeEvent(Writer out, String name, String category, long threadId, long startNanos,
+                                   long totalNanos, String args) throws IOException {
+        out.write("{\"name\":" + quote(name) + ",\"cat\":\"" + category + "\",\"ph\":\"X\",\"pid\":1,\"tid\":" +
+                threadId + ",\"ts\":" + micros(startNanos) + ",\"dur\":" + micros(totalNanos) +
+                (args == null ? "" : ",\"args\":" + args) + "}");
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') quoted.append('\\').append(c);
+            else if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+            else quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            throw new RivetException("Cannot register metrics MBean " + OBJECT_NAME, e);
+        }
+    }
+
+    static void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (JMException e) {
+            throw new RivetException("Cannot unregister metrics MBean " + OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ContainerMetrics{" +
+                "\n\tlookupHits=" + getLookupHits() +
+                ", \n\tlookupMisses=" + getLookupMisses() +
+                ", \n\tbeansCreated=" + getBeansCreated() +
+                ", \n\tuntimedBeans=" + getUntimedBeans() +
+                ", \n\tconfigMillis=" + getConfigMillis() +
+                ", \n\tinstantiationMillis=" + getInstantiationMillis() +
+                ", \n\tslowestBeans=" + Arrays.toString(getSlowestBeans()) +
+                "\n}";
+    }
+}
@@ -0,0 +1,35 @@
+package org.mayukh.rivet.core;
+
+/**
+ * JMX view of ContainerMetrics, registered as org.mayukh.rivet:type=ContainerMetrics
+ */
+public interface ContainerMetricsMBean {
+
+    long getLookupHits();
+
+    /**
+     * lookups not served from the beanstore: singletons not yet created, other scopes, and undefined beans
+     */
+    long getLookupMisses();
+
+    long getBeansCreated();
+
+    /**
+     * creations counted, but without a timing, once the timings of the first ones are kept
+     */
+    long getUntimedBeans();
+
+    long getConfigMillis();
+
+    long getInstantiationMillis();
+
+    /**
+     * beans taking the most time in their own cons and setters, slowest first
+     */
+    String[] getSlowestBeans();
+
+    /**
+     * startup timeline in the Chrome trace event format
+     */
+    String chromeTrace();
+}
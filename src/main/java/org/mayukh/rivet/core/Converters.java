@@ -0,0 +1,213 @@
+package org.mayukh.rivet.core;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.time.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Registry of converters from literal values in the config to objects, keyed by type.
+ *
+ * Supported out of the box: String, primitives and their wrappers, BigDecimal, BigInteger, java.time types and
+ * Duration, enums by constant name, and arrays of supported types as comma separated values. Other immutable JDK
+ * value types (java.time, UUID, URI, File) are converted through their static valueOf, of, parse or fromString
+ * factory taking a String, or a cons taking a String. Any other type needs a registered converter.
+ *
+ * Values of the immutable types are converted once, and shared by all objects; arrays of them are copied for each
+ * object. Values of registered types may be mutable, so they are converted again for each object (see valueFor()).
+ */
+public final class Converters {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    /* registered or derived converters; derived ones are added on first use */
+    private static final Map<Class<?>, Function<String, ?>> converters = new ConcurrentHashMap<>();
+
+    /* types whose converted values can be shared: the built-in ones, and derived ones but arrays */
+    private static final Set<Class<?>> immutable = ConcurrentHashMap.newKeySet();
+
+    /* JDK value types outside java.time, known to be immutable, converted through their String factory or cons */
+    private static final Set<Class<?>> DERIVABLE = new HashSet<>(Arrays.asList(UUID.class, URI.class, File.class));
+
+    static {
+        register(String.class, s -> s);
+        register(Integer.class, Integer::valueOf);
+        register(int.class, Integer::valueOf);
+        register(Long.class, Long::valueOf);
+        register(long.class, Long::valueOf);
+        register(Double.class, Double::valueOf);
+        register(double.class, Double::valueOf);
+        register(Float.class, Float::valueOf);
+        register(float.class, Float::valueOf);
+        register(Short.class, Short::valueOf);
+        register(short.class, Short::valueOf);
+        register(Byte.class, Byte::valueOf);
+        register(byte.class, Byte::valueOf);
+        register(Boolean.class, Converters::toBoolean);
+        register(boolean.class, Converters::toBoolean);
+        register(Character.class, Converters::toCharacter);
+        register(char.class, Converters::toCharacter);
+        register(BigDecimal.class, BigDecimal::new);
+        register(BigInteger.class, BigInteger::new);
+        register(LocalDate.class, LocalDate::parse);
+        register(LocalTime.class, LocalTime::parse);
+        register(LocalDateTime.class, LocalDateTime::parse);
+        register(Instant.class, Instant::parse);
+        register(Duration.class, Duration::parse);
+        register(Period.class, Period::parse);
+        immutable.addAll(converters.keySet());
+    }
+
+    private Converters() {}
+
+    /**
+     * add or replace the converter for a type. Its values are converted for each object they are injected into.
+     */
+    public static <T> void register(Class<T> type, Function<String, ? extends T> converter) {
+        converters.put(type, converter);
+        immutable.remove(type);
+    }
+
+    /**
+     * drop the converter of a type; it is derived again on next use, if it can be
+     */
+    public static void unregister(Class<?> type) {
+        converters.remove(type);
+        immutable.remove(type);
+    }
+
+    /**
+     * whether converted values of the type can be shared by any number of objects
+     */
+    static boolean isImmutable(Class<?> type) {
+        return converter(type) != null && immutable.contains(type);
+    }
+
+    /**
+     * the value to inject into one object, given the value converted once from the literal: the converted value
+     * itself for immutable types, a copy of it for arrays of immutable types, else a new conversion of the literal
+     */
+    public static Object valueFor(Object converted, String value, Class<?> type) {
+        if (converted == null || isImmutable(type)) return converted;
+        if (type.isArray() && isImmutable(type.getComponentType())) return copyIfArray(converted);
+        return convert(value, type);
+    }
+
+    public static boolean supports(Class<?> type) {
+        return converter(type) != null;
+    }
+
+    /**
+     * convert a literal value to the type
+     * @throws IllegalArgumentException if the type cannot be converted to, or the value is invalid for it
+     */
+    public static Object convert(String value, Class<?> type) {
+        Function<String, ?> converter = converter(type);
+        if (converter == null) throw new IllegalArgumentException("no converter for type " + type.getName());
+        try {
+            return converter.apply(value);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid value \"" + value + "\" for type " + type.getName(), e);
+        }
+    }
+
+    private static Function<String, ?> converter(Class<?> type) {
+        Function<String, ?> converter = converters.get(type);
+        if (converter == null) {
+            converter = derive(type);
+            if (converter != null && converters.putIfAbsent(type, converter) == null && !type.isArray())
+                immutable.add(type);
+        }
+        return converter;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Function<String, ?> derive(Class<?> type) {
+        if (type.isEnum()) return s -> Enum.valueOf((Class) type, s.trim());
+        if (type.isArray()) {
+            Class<?> componentType = type.getComponentType();
+            Function<String, ?> component = converter(componentType);
+            if (component == null) return null;
+            return s -> {
+                String[] parts = s.trim().isEmpty() ? new String[0] : s.split(",");
+                Object array = Array.newInstance(componentType, parts.length);
+                for (int i = 0; i < parts.length; i++) Array.set(array, i, component.apply(parts[i].trim()));
+                return array;
+            };
+        }
+
+        if (!DERIVABLE.contains(type) && !type.getName().startsWith("java.time.")) return null;
+        MethodHandle factory = factory(type);
+        if (factory == null) return null;
+        return s -> {
+            try {
+                return (Object) factory.invokeExact(s);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalArgumentException(t);
+            }
+        };
+    }
+
+    /**
+     * public static valueOf, of, parse or fromString taking a String / CharSequence, or a public cons taking a String,
+     * as a handle of type (String)Object
+     */
+    private static MethodHandle factory(Class<?> type) {
+        if (!Modifier.isPublic(type.getModifiers()) || type.isPrimitive()) return null;
+        MethodType generic = MethodType.methodType(Object.class, String.class);
+        for (String name : new String[]{"valueOf", "of", "parse", "fromString"}) {
+            for (Class<?> parameter : new Class<?>[]{String.class, CharSequence.class}) {
+                try {
+                    return LOOKUP.findStatic(type, name, MethodType.methodType(type, parameter)).asType(generic);
+                } catch (ReflectiveOperationException e) {
+                    // try the next convention
+                }
+            }
+        }
+        try {
+            return LOOKUP.findConstructor(type, MethodType.methodType(void.class, String.class)).asType(generic);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * stricter than Boolean.valueOf(), which takes anything but "true" as false
+     */
+    private static Boolean toBoolean(String value) {
+        if ("true".equalsIgnoreCase(value.trim())) return Boolean.TRUE;
+        if ("false".equalsIgnoreCase(value.trim())) return Boolean.FALSE;
+        throw new IllegalArgumentException("not a boolean: " + value);
+    }
+
+    private static Character toCharacter(String value) {
+        if (value.length() != 1) throw new IllegalArgumentException("not a single character: " + value);
+        return value.charAt(0);
+    }
+
+    /**
+     * copy of a converted array, so that objects do not share a mutable constant; other values are returned as is
+     */
+    static Object copyIfArray(Object value) {
+        if (value == null || !value.getClass().isArray()) return value;
+        int length = Array.getLength(value);
+        Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+        System.arraycopy(value, 0, copy, 0, length);
+        return copy;
+    }
+}
@@ -0,0 +1,14 @@
+package org.mayukh.rivet.core;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-bean lock held while the bean object is being created.
+ * Exposes the owner thread, so that the container can detect threads waiting on each other's beans.
+ */
+final class CreationLock extends ReentrantLock {
+
+    Thread owner() {
+        return getOwner();
+    }
+}
@@ -0,0 +1,212 @@
+package org.mayukh.rivet.core;
+
+import java.lang.invoke.MethodHandle;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Immutable, pre-resolved recipe to create objects of a bean.
+ *
+ * All reflective lookups (class, constructor or factory method, setter methods or fields) are done once in compile(),
+ * and turned into method handles, shared by all beans of the type through TypeMetadata. Creating an object
+ * afterwards costs about as much as a direct call to new, or to the factory method, and the setters.
+ */
+final class CreationPlan {
+
+    /* refs resolved from the container, unless staged otherwise */
+    private static final Function<String, Object> CONTAINER = DiContainer::getBean;
+
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final MethodHandle[] NO_SETTERS = new MethodHandle[0];
+    private static final SetterParam[] NO_SETTER_PARAMS = new SetterParam[0];
+
+    /* default cons as a Supplier, when there are no cons params */
+    private final Supplier<Object> instantiator;
+
+    /* cons or static factory method taking all cons params spread from an Object[], when there are cons params */
+    private final MethodHandle constructor;
+    private final ConsParam[] consParams;
+
+    /* factory method of the factory bean, looked up on the class of the factory bean once it is resolved; the
+       handle of the last class seen is kept */
+    private final String factoryBean;
+    private final String factoryMethod;
+    private final Class<?>[] factoryParamTypes;
+    private volatile FactoryHandle factory;
+
+    /* setters[i] sets setterParams[i] on the object */
+    private final MethodHandle[] setters;
+    private final SetterParam[] setterParams;
+
+    /* init-method of type (Object)void, called once the object is injected; null if none */
+    private final MethodHandle init;
+
+    /* setters and init of a generated factory, called once the object is constructed; null if none */
+    private final Consumer<Object> injector;
+
+    private CreationPlan(Supplier<Object> instantiator, MethodHandle constructor, ConsParam[] consParams,
+                         String factoryBean, String factoryMethod, Class<?>[] factoryParamTypes,
+                         MethodHandle[] setters, SetterParam[] setterParams, MethodHandle init,
+                         Consumer<Object> injector) {
+        this.instantiator = instantiator;
+        this.constructor = constructor;
+        this.consParams = consParams;
+        this.factoryBean = factoryBean;
+        this.factoryMethod = factoryMethod;
+        this.factoryParamTypes = factoryParamTypes;
+        this.setters = setters;
+        this.setterParams = setterParams;
+        this.init = init;
+        this.injector = injector;
+    }
+
+    /**
+     * resolve the bean type, its cons or static factory method, its setters and its init method (if any) to method
+     * handles. The factory method of a factory bean is resolved on first execute(), once the factory bean is known.
+     */
+    static CreationPlan compile(String type, String factoryBean, String factoryMethod, ConsParam[] consParams,
+                                SetterParam[] setterParams, String initMethod) {
+        try {
+            TypeMetadata metadata = TypeMetadata.of(Types.forName(type));
+
+            Supplier<Object> instantiator = null;
+            MethodHandle constructor = null;
+            Class<?>[] consParamTypes = new Class<?>[consParams == null ? 0 : consParams.length];
+            for (int i = 0; i < consParamTypes.length; i++)
+                consParamTypes[i] = consParams[i].getTypeClass();
+            if (factoryBean != null) {
+                if (consParams == null) consParams = new ConsParam[0];
+            } else if (factoryMethod != null) {
+                constructor = metadata.factoryMethod(factoryMethod, true, consParamTypes);
+                if (consParams == null) consParams = new ConsParam[0];
+            } else if (consParams != null) {
+                constructor = metadata.constructor(consParamTypes);
+            } else {
+                instantiator = metadata.instantiator();
+            }
+
+            // the param arrays of the bean are never modified, so they are shared rather than copied
+            if (setterParams == null) setterParams = NO_SETTER_PARAMS;
+            MethodHandle[] setters = setterParams.length == 0 ? NO_SETTERS : new MethodHandle[setterParams.length];
+            for (int i = 0; i < setters.length; i++)
+                setters[i] = metadata.setter(setterParams[i].getName(), setterParams[i].getTypeClass());
+
+            MethodHandle init = initMethod == null ? null : metadata.method(initMethod);
+            return new CreationPlan(instantiator, constructor, consParams, factoryBean, factoryMethod,
+                    consParamTypes, setters, setterParams, init, null);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new RivetException("Cannot compile creation plan for type " + type, e);
+        }
+    }
+
+    /**
+     * plan for a factory which does all of the creation itself, e.g. a registered one; or, with an injector, one
+     * which constructs the object, and the injector sets its refs, e.g. a generated one
+     */
+    static CreationPlan of(Supplier<Object> factory, Consumer<Object> injector) {
+        return new CreationPlan(factory, null, null, null, null, null, NO_SETTERS, NO_SETTER_PARAMS, null, injector);
+    }
+
+    /**
+     * estimated bytes of the plan itself; its method handles are shared by all beans of the type
+     */
+    long footprint() {
+        return Footprint.shallow(CreationPlan.class) + (setters.length == 0 ? 0 : Footprint.array(setters.length));
+    }
+
+    /**
+     * create the object using cons, then call setters and the init method on it
+     */
+    Object execute() {
+        return executeWith(CONTAINER, null);
+    }
+
+    /**
+     * as execute(), passing the object to constructed, if not null, as soon as it is constructed; so that it can be
+     * referred to early, by beans created through its setters
+     */
+    Object execute(Consumer<Object> constructed) {
+        return executeWith(CONTAINER, constructed);
+    }
+
+    /**
+     * create the object, resolving its refs through refs instead of the container. Generated factories resolve
+     * their refs themselves, from the container.
+     */
+    Object executeWith(Function<String, Object> refs) {
+        return executeWith(refs, null);
+    }
+
+    Object executeWith(Function<String, Object> refs, Consumer<Object> constructed) {
+        Object o = instantiate(refs);
+        if (constructed != null) constructed.accept(o);
+        inject(o, refs);
+        if (injector != null) injector.accept(o);
+        if (init != null) init(o);
+        return o;
+    }
+
+    private void init(Object o) {
+        try {
+            init.invokeExact(o);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RivetException("Cannot init object of type " + o.getClass().getName(), t);
+        }
+    }
+
+    private Object instantiate(Function<String, Object> refs) {
+        if (instantiator != null) return instantiator.get();
+
+        Object[] args = consParams.length == 0 ? NO_ARGS : new Object[consParams.length];
+        for (int i = 0; i < args.length; i++) args[i] = consParams[i].create(refs);
+        try {
+            if (factoryBean == null) return (Object) constructor.invokeExact(args);
+            Object target = refs.apply(factoryBean);
+            if (target == null) throw new RivetException("Undefined factory bean " + factoryBean);
+            return (Object) factoryMethod(target.getClass()).invokeExact(target, args);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RivetException(factoryMethod == null ? "Cannot create object with cons params " + args.length
+                    : "Cannot create object with factory-method " + factoryMethod, t);
+        }
+    }
+
+    private MethodHandle factoryMethod(Class<?> type) throws ReflectiveOperationException {
+        FactoryHandle f = factory;
+        if (f == null || f.type != type) {
+            f = new FactoryHandle(type, TypeMetadata.of(type).factoryMethod(factoryMethod, false, factoryParamTypes));
+            factory = f;
+        }
+        return f.handle;
+    }
+
+    private static final class FactoryHandle {
+        final Class<?> type;
+        final MethodHandle handle;
+
+        FactoryHandle(Class<?> type, MethodHandle handle) {
+            this.type = type;
+            this.handle = handle;
+        }
+    }
+
+    /**
+     * If a bean has cons params and setter params both for same field in xml, the setter will override the value.
+     */
+    private void inject(Object o, Function<String, Object> refs) {
+        for (int i = 0; i < setters.length; i++) {
+            Object value = setterParams[i].create(refs);
+            try {
+                setters[i].invokeExact(o, value);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RivetException("Cannot set " + setterParams[i].getName(), t);
+            }
+        }
+    }
+}
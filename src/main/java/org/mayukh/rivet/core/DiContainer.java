@@ -1,14 +1,18 @@
 package org.mayukh.rivet.core;
 
-import org.mayukh.xparse.dom.RegularXml;
-import org.mayukh.xparse.dom.XmlElement;
-import org.mayukh.xparse.parser.Parser;
-
 import java.io.IOException;
+import java.lang.invoke.MethodType;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Created by mayukh42 on 11/6/17.
@@ -18,43 +22,717 @@ import java.util.*;
  * Bean lifecycle:
  *  First, a map of bean references and corresponding Bean objects are created.
  *  Then, actual bean objects are created on demand.
+ *
+ * Thread safety:
+ *  Lookups of created beans are lock-free reads. First-time creation of a bean happens exactly once, under the
+ *  creation lock of that bean only, so unrelated beans can be created in parallel.
+ *
+ * Scopes:
+ *  Only singletons are kept in the beanstore. Prototype beans are created on every lookup, thread beans once per
+ *  thread, and pooled beans are borrowed from the pool of the bean, to be given back with releaseBean().
+ *
+ * Freezing:
+ *  Once all beans are defined, freeze() creates the remaining singletons and moves them to an immutable table,
+ *  for the cheapest lookups. After that, bean defs and singletons can no longer be added.
+ *
+ * Shutdown:
+ *  shutdown() destroys the created singletons in reverse dependency order, calling their destroy-method or close(),
+ *  and drops them, then the idle objects of pools; the bean defs are kept.
+ *
+ * Memory:
+ *  Bean defs share their strings and params through a symbol table, and keep their params in flat arrays. With
+ *  releaseDefinitions(true), the params of a singleton def are dropped once it is created; footprint() estimates
+ *  what the defs take.
  */
 public class DiContainer {
 
     /* created beans */
-    static final Map<String, Object> beanstore = new HashMap<>();
+    static final Map<String, Object> beanstore = new ConcurrentHashMap<>();
 
     /* requested beans, for a lazy instantiation approach */
-    static final Map<String, Bean> beanDefs = new HashMap<>();
+    static final Map<String, Bean> beanDefs = new ConcurrentHashMap<>();
+
+    /* binary snapshot of the bean defs, if enabled */
+    private static volatile Path snapshot;
+
+    /* bean each thread is blocked on, while another thread creates it */
+    private static final Map<Thread, Bean> waiting = new ConcurrentHashMap<>();
+
+    /* created singletons, once the container is frozen; null until then */
+    private static volatile FrozenBeans frozen;
+
+    /* bean names per type, built from the bean defs on first lookup by type; null when bean defs change */
+    private static volatile TypeIndex typeIndex;
+
+    /* <bean name, all beans of its setter cycle, sorted>, built from the bean defs on first creation of a bean in a
+       cycle; null when bean defs change */
+    private static volatile Map<String, List<String>> cycleMembers;
+
+    /* whether the bean defs passed validate(), and have not changed since: creation then skips its cycle checks */
+    private static volatile boolean validated;
+
+    /* incremented by defsChanged(), so that what was derived from older bean defs (the fields above) is not
+       published once they changed; guarded by derivedLock */
+    private static long defsVersion;
+    private static final Object derivedLock = new Object();
+
+    /* singletons being created asynchronously, shared by all callers until created */
+    private static final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /* executor for asynchronous creation; the default one if null */
+    private static volatile Executor asyncExecutor;
+
+    /* whether the last config read found generated factories, but ignored them since the config changed */
+    private static volatile boolean generatedFactoriesStale;
+
+    /* whether the params of a singleton def are dropped once the singleton is created */
+    private static volatile boolean releaseDefinitions;
+
+    /* instrumentation; null when disabled */
+    static volatile ContainerMetrics metrics;
+
+    /* non singleton beans being created by the current thread, to catch circular references between them */
+    private static final ThreadLocal<Set<String>> creating = ThreadLocal.withInitial(HashSet::new);
+
+    /* singletons constructed but not injected yet, by the thread creating them; see createOnce() */
+    private static final Map<String, Object> earlyReferences = new ConcurrentHashMap<>();
+
+    /* singletons of a cycle locked by the current thread, ahead of creating them; see createCycle() */
+    private static final ThreadLocal<Set<String>> lockedAhead = ThreadLocal.withInitial(HashSet::new);
 
     /**
-     * getBean(ref): returns bean already created in beanstore
-     * TODO: implement on-demand creation
+     * getBean(ref): returns bean already created in beanstore, else creates it on demand
      */
     public static Object getBean(String ref) {
-        if (beanstore.containsKey(ref)) return beanstore.get(ref);
-        else if (beanDefs.containsKey(ref)) {
-            // bean defined but not yet created
-            Bean bean = beanDefs.get(ref);
-            return bean.create();
+        FrozenBeans f = frozen;
+        Object o = f != null ? f.get(ref) : beanstore.get(ref);
+        ContainerMetrics m = metrics;
+        if (o != null) {
+            if (m != null) m.hit();
+            return o;
         }
-        else return null;
+        return m == null ? resolve(ref) : m.miss(ref);
+    }
+
+    /**
+     * getBean(ref), without blocking the caller: the bean is created on the async executor.
+     *
+     * The singletons it refers to are requested asynchronously first, so that independent dependencies are created
+     * concurrently, and the bean itself once they are all done; its refs of other scopes are created with it.
+     * Concurrent callers of a singleton share one creation. Beans in setter cycles are created with their cycle in
+     * one task. The future completes with null for an undefined bean, and fails on circular references through cons.
+     */
+    public static CompletableFuture<Object> getBeanAsync(String ref) {
+        FrozenBeans f = frozen;
+        Object o = f != null ? f.get(ref) : beanstore.get(ref);
+        if (o != null) return CompletableFuture.completedFuture(o);
+
+        Bean bean = beanDefs.get(ref);
+        if (bean == null) return CompletableFuture.completedFuture(null);
+        Executor executor = asyncExecutor();
+        if (bean.getScope() != Scope.SINGLETON) return CompletableFuture.supplyAsync(() -> getBean(ref), executor);
+
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(ref, created);
+        if (existing != null) return existing;
+        if (beanstore.containsKey(ref)) {
+            // created since the first check
+            inFlight.remove(ref, created);
+            created.complete(beanstore.get(ref));
+            return created;
+        }
+
+        try {
+            Set<String> dependencies = bean.getDependencies();
+            Set<String> visited = new HashSet<>();
+            boolean cyclic = false;
+            for (String dependency : dependencies) {
+                if (dependsOn(dependency, ref, visited)) {
+                    cyclic = true;
+                    break;
+                }
+            }
+
+            // a bean in a cycle is created together with the rest of the cycle, by one thread. Only singletons are
+            // resolved ahead: an object of another scope would be created, or borrowed, for nothing
+            List<CompletableFuture<Object>> resolved = new ArrayList<>();
+            if (!cyclic) {
+                for (String dependency : dependencies) {
+                    Bean target = beanDefs.get(dependency);
+                    if (target != null && target.getScope() == Scope.SINGLETON)
+                        resolved.add(getBeanAsync(dependency));
+                }
+            }
+            CompletableFuture.allOf(resolved.toArray(new CompletableFuture<?>[0]))
+                    .thenApplyAsync(v -> getBean(ref), executor)
+                    .whenComplete((value, failure) -> {
+                        inFlight.remove(ref, created);
+                        if (failure != null) created.completeExceptionally(unwrap(failure));
+                        else created.complete(value);
+                    });
+        } catch (RuntimeException e) {
+            inFlight.remove(ref, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * whether a bean not created yet refers to target, directly or transitively
+     */
+    private static boolean dependsOn(String ref, String target, Set<String> visited) {
+        if (ref.equals(target)) return true;
+        if (!visited.add(ref) || beanstore.containsKey(ref)) return false;
+        Bean bean = beanDefs.get(ref);
+        if (bean == null) return false;
+        for (String dependency : bean.getDependencies())
+            if (dependsOn(dependency, target, visited)) return true;
+        return false;
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    /**
+     * executor for getBeanAsync(); by default virtual threads where available, else the common ForkJoinPool
+     */
+    public static void setAsyncExecutor(Executor executor) {
+        asyncExecutor = executor;
+    }
+
+    private static Executor asyncExecutor() {
+        Executor executor = asyncExecutor;
+        return executor != null ? executor : DefaultAsyncExecutor.executor;
+    }
+
+    private static final class DefaultAsyncExecutor {
+        static final Executor executor = RivetExecutors.newDefaultExecutor();
+    }
+
+    /**
+     * a child container, with beans of its own on top of these, e.g. per tenant or per request
+     */
+    public static ChildContainer newChild() {
+        return new ChildContainer(null);
+    }
+
+    /**
+     * the bean of a type: its class, a superclass or an interface it implements. null if there is no such bean.
+     * @throws RivetException if more than one bean is of the type
+     */
+    public static <T> T getBean(Class<T> type) {
+        String[] names = typeIndex().get(type);
+        if (names.length == 0) return null;
+        if (names.length > 1)
+            throw new RivetException("No unique bean of type " + type.getName() + ": " + Arrays.toString(names));
+        return type.cast(getBean(names[0]));
+    }
+
+    /**
+     * all singletons of a type, by name in name order; singletons not yet created are created. Beans of other
+     * scopes are left out: looking them up would create a new object, or borrow one from a pool, for each of them.
+     */
+    public static <T> Map<String, T> getBeansOfType(Class<T> type) {
+        String[] names = typeIndex().get(type);
+        Map<String, T> beans = new LinkedHashMap<>(names.length * 2);
+        for (String name : names) {
+            Bean bean = beanDefs.get(name);
+            if (bean != null && bean.getScope() != Scope.SINGLETON) continue;
+            beans.put(name, type.cast(getBean(name)));
+        }
+        return beans;
+    }
+
+    private static TypeIndex typeIndex() {
+        TypeIndex index = typeIndex;
+        if (index == null) {
+            long version = defsVersion();
+            index = TypeIndex.build(beanDefs);
+            synchronized (derivedLock) {
+                if (version == defsVersion) typeIndex = index;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * bean not in the beanstore: a singleton not yet created, or a bean of another scope
+     */
+    static Object resolve(String ref) {
+        Bean bean = beanDefs.get(ref);
+        if (bean == null) return null;
+        switch (bean.getScope()) {
+            case PROTOTYPE:
+            case POOLED:
+                return createScoped(bean);
+            case THREAD: {
+                ThreadLocal<Object> instances = bean.getThreadInstances();
+                Object o = instances.get();
+                if (o == null) {
+                    o = createScoped(bean);
+                    instances.set(o);
+                }
+                return o;
+            }
+            default:
+                return createOnce(bean);
+        }
+    }
+
+    /**
+     * give back an object of a pooled bean, borrowed with getBean(); no-op for other scopes
+     */
+    public static void releaseBean(String ref, Object object) {
+        Bean bean = beanDefs.get(ref);
+        if (bean != null && bean.getScope() == Scope.POOLED) bean.getPool().giveBack(object);
+    }
+
+    /**
+     * drop the objects of thread scoped beans created by the current thread, e.g. before a pooled thread takes up
+     * an unrelated task. Virtual threads are not reused, so their objects are dropped with them.
+     */
+    public static void endThreadScope() {
+        for (Bean bean : beanDefs.values())
+            if (bean.getScope() == Scope.THREAD) bean.getThreadInstances().remove();
+    }
+
+    /**
+     * new object of a prototype or thread bean, or one borrowed from the pool of a pooled bean.
+     * No lock is needed, since these are not shared; a bean already being created by this thread is a cycle,
+     * unless validate() ruled out cycles.
+     */
+    private static Object createScoped(Bean bean) {
+        if (validated) return bean.getScope() == Scope.POOLED ? bean.getPool().borrow() : bean.newInstance();
+        Set<String> current = creating.get();
+        if (!current.add(bean.getName())) throw new RivetException("Circular reference to bean " + bean.getName());
+        try {
+            return bean.getScope() == Scope.POOLED ? bean.getPool().borrow() : bean.newInstance();
+        } finally {
+            current.remove(bean.getName());
+        }
+    }
+
+    /**
+     * create the bean under its own lock. The beanstore is checked again after locking, since another thread may
+     * have created it in the meantime.
+     *
+     * A singleton is registered as an early reference as soon as it is constructed, before its setters run. So when
+     * the current thread, while creating the bean, gets back to it through setters, it gets the early reference, and
+     * setter cycles are resolved in one pass. Early references are never seen by other threads. Getting back to the
+     * bean before it is constructed, i.e. through a cons, is a cycle which cannot be resolved.
+     */
+    private static Object createOnce(Bean bean) {
+        String name = bean.getName();
+        if (bean.getLock().isHeldByCurrentThread()) {
+            Object early = earlyReferences.get(name);
+            if (early != null) return early;
+            if (lockedAhead.get().remove(name)) return createLocked(bean);
+            Object o = beanstore.get(name);
+            if (o == null) throw new RivetException("Circular reference to bean " + name + " through a cons");
+            return o;
+        }
+
+        List<String> cycle = validated ? null : cycleMembers().get(name);
+        if (cycle != null) return createCycle(bean, cycle);
+
+        lock(bean);
+        try {
+            Object o = beanstore.get(name);
+            return o != null ? o : createLocked(bean);
+        } finally {
+            earlyReferences.remove(name);
+            bean.getLock().unlock();
+        }
+    }
+
+    private static Object createLocked(Bean bean) {
+        Object o = bean.create();
+        if (releaseDefinitions) bean.release();
+        return o;
+    }
+
+    /**
+     * create a singleton of a setter cycle, after locking all singletons of the cycle, in the order of their names.
+     * Two threads starting at different beans of the cycle would otherwise each lock their own bean and then wait
+     * on each other; this way the second one waits until the first has created the whole cycle. The other beans are
+     * created under the locks taken ahead, as the first bean gets to them.
+     */
+    private static Object createCycle(Bean bean, List<String> cycle) {
+        String name = bean.getName();
+        Set<String> ahead = lockedAhead.get();
+        List<Bean> locked = new ArrayList<>(cycle.size());
+        try {
+            for (String member : cycle) {
+                Bean def = beanDefs.get(member);
+                if (def == null || def.getScope() != Scope.SINGLETON) continue;
+                lock(def);
+                locked.add(def);
+            }
+            Object o = beanstore.get(name);
+            if (o != null) return o;
+            for (Bean def : locked)
+                if (def != bean && !beanstore.containsKey(def.getName())) ahead.add(def.getName());
+            return createLocked(bean);
+        } finally {
+            for (Bean def : locked) {
+                ahead.remove(def.getName());
+                earlyReferences.remove(def.getName());
+                def.getLock().unlock();
+            }
+        }
+    }
+
+    private static Map<String, List<String>> cycleMembers() {
+        Map<String, List<String>> members = cycleMembers;
+        if (members == null) {
+            long version = defsVersion();
+            members = new BeanGraph(new HashMap<>(beanDefs)).cycleMembers();
+            synchronized (derivedLock) {
+                if (version == defsVersion) cycleMembers = members;
+            }
+        }
+        return members;
+    }
+
+    static void addEarlyReference(String ref, Object object) {
+        earlyReferences.put(ref, object);
+    }
+
+    /**
+     * acquire the creation lock of a bean. Fails instead of deadlocking when the bean is (transitively) waiting on
+     * the current thread, i.e. when beans refer to each other in a cycle, created from different threads.
+     */
+    private static void lock(Bean bean) {
+        CreationLock lock = bean.getLock();
+        if (lock.tryLock()) return;
+        if (validated) {
+            // no cycles, so no deadlock
+            lock.lock();
+            return;
+        }
+
+        Thread current = Thread.currentThread();
+        waiting.put(current, bean);
+        try {
+            if (waitsOn(current, bean))
+                throw new RivetException("Circular reference to bean " + bean.getName() + " across threads");
+            lock.lock();
+        } finally {
+            waiting.remove(current);
+        }
+    }
+
+    /**
+     * follow the chain: owner of bean -> bean that owner waits on -> its owner ... and check if it leads back to
+     * the current thread
+     */
+    private static boolean waitsOn(Thread current, Bean bean) {
+        Set<Thread> seen = new HashSet<>();
+        Thread owner = bean.getLock().owner();
+        while (owner != null && seen.add(owner)) {
+            if (owner == current) return true;
+            Bean next = waiting.get(owner);
+            if (next == null) return false;
+            owner = next.getLock().owner();
+        }
+        return false;
+    }
+
+    /**
+     * check all bean defs at once, before creating beans: circular references, with their paths, refs to undefined
+     * beans, refs to beans of the wrong type, and params which the cons, setters or fields of the bean type do not
+     * take. Creation plans are compiled on the way. Cycles through setters only are fine, as they are resolved
+     * through early references. Once the defs are valid without any cycle, and without suppliers whose refs are not
+     * declared, and until they change, beans are created without the cycle checks made on every creation otherwise.
+     */
+    public static synchronized ValidationReport validate() {
+        long version = defsVersion();
+        Map<String, Bean> defs = new TreeMap<>(beanDefs);
+        List<String> problems = new ArrayList<>();
+        for (Bean bean : defs.values()) validate(bean, defs, problems);
+        BeanGraph graph = new BeanGraph(defs);
+        ValidationReport report = new ValidationReport(graph.cycles(), problems);
+        boolean refsDeclared = true;
+        for (Bean bean : defs.values()) if (bean.hasUndeclaredRefs()) refsDeclared = false;
+        synchronized (derivedLock) {
+            if (version == defsVersion) validated = report.isValid() && !graph.hasCycles() && refsDeclared;
+        }
+        return report;
+    }
+
+    private static void validate(Bean bean, Map<String, Bean> defs, List<String> problems) {
+        if (bean.isReleased()) return;     // created already
+        String name = bean.getName();
+        try {
+            bean.plan();
+        } catch (RivetException e) {
+            problems.add("Bean " + name + " does not match its type: " + (e.getCause() != null ? e.getCause() : e));
+        }
+
+        List<Param> params = new ArrayList<>();
+        if (bean.getConsParams() != null) params.addAll(Arrays.asList(bean.getConsParams()));
+        if (bean.getSetterParams() != null) params.addAll(Arrays.asList(bean.getSetterParams()));
+        Set<String> undefined = new TreeSet<>();
+        for (String ref : bean.getDependencies())
+            if (!defs.containsKey(ref)) undefined.add(ref);
+        for (Param param : params) {
+            Bean target = param.getRef() == null ? null : defs.get(param.getRef());
+            if (param.getRef() != null && target == null) undefined.add(param.getRef());
+            if (target == null) continue;
+            try {
+                Class<?> type = param.getTypeClass();
+                if (param.isLazy() && type == Supplier.class) continue;
+                Class<?> targetType;
+                try {
+                    targetType = Types.forName(target.getType());
+                } catch (ClassNotFoundException e) {
+                    continue;   // reported for the target itself
+                }
+                if (!MethodType.methodType(type).wrap().returnType().isAssignableFrom(targetType))
+                    problems.add("Bean " + name + ": " + param.getName() + " of type " + type.getName() +
+                            " cannot take bean " + target.getName() + " of type " + targetType.getName());
+            } catch (IllegalArgumentException e) {
+                problems.add("Bean " + name + ": " + param.getName() + " of unknown type " + param.getType());
+            }
+        }
+        for (String ref : undefined) problems.add("Bean " + name + " refers to undefined bean " + ref);
+    }
+
+    /**
+     * eagerly create all defined singleton beans, on virtual threads where available, else on the common ForkJoinPool
+     */
+    public static InitReport eagerInit() {
+        ExecutorService executor = RivetExecutors.newDefaultExecutor();
+        try {
+            return eagerInit(executor);
+        } finally {
+            RivetExecutors.release(executor);
+        }
+    }
+
+    /**
+     * eagerly create all defined singleton beans, layer by layer of the dependency graph.
+     * Beans within a layer do not depend on each other, so they are created in parallel on the executor;
+     * their dependencies are already in the beanstore by then. Beans in setter cycles, and those depending on them,
+     * are created last, one after the other. Beans of other scopes are created on lookup only.
+     */
+    public static InitReport eagerInit(ExecutorService executor) {
+        long start = System.nanoTime();
+        BeanGraph graph = new BeanGraph(beanDefs);
+        List<List<String>> layers = graph.layers();
+        Map<String, Long> creationNanos = new ConcurrentHashMap<>();
+
+        for (List<String> layer : layers) {
+            List<Callable<Object>> tasks = new ArrayList<>(layer.size());
+            for (String ref : layer) {
+                if (beanDefs.get(ref).getScope() != Scope.SINGLETON) continue;
+                tasks.add(() -> {
+                    long beanStart = System.nanoTime();
+                    Object o = getBean(ref);
+                    creationNanos.put(ref, System.nanoTime() - beanStart);
+                    return o;
+                });
+            }
+            if (graph.isSequential(layer) && !tasks.isEmpty()) {
+                // setter cycles: created by one thread, which resolves them through early references
+                List<Callable<Object>> sequence = tasks;
+                tasks = Collections.singletonList(() -> {
+                    for (Callable<Object> task : sequence) task.call();
+                    return null;
+                });
+            }
+            try {
+                for (Future<Object> result : executor.invokeAll(tasks)) result.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new RivetException("Eager initialization failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RivetException("Eager initialization interrupted", e);
+            }
+        }
+        return new InitReport(graph, layers, creationNanos, System.nanoTime() - start);
+    }
+
+    /**
+     * create all singletons not created yet, and make the container read only: singletons are looked up from an
+     * immutable table from then on, and defining beans fails. Beans of other scopes are still created on lookup.
+     */
+    public static synchronized void freeze() {
+        if (frozen != null) return;
+        eagerInit();
+        typeIndex();
+        frozen = new FrozenBeans(beanstore);
+    }
+
+    public static boolean isFrozen() {
+        return frozen != null;
+    }
+
+    /**
+     * whether generated bean factories were found on the classpath, but the config changed since they were
+     * generated; the bean defs were then read from the config instead, and are created reflectively
+     */
+    public static boolean isGeneratedFactoriesStale() {
+        return generatedFactoriesStale;
+    }
+
+    private static void checkNotFrozen() {
+        if (frozen != null) throw new RivetException("Container is frozen");
+    }
+
+    /**
+     * destroy all created singletons, allowing each timeout to finish, on virtual threads where available, else on
+     * threads of a pool of their own, so that hung destroy methods can be interrupted
+     */
+    public static ShutdownReport shutdown(long timeout, TimeUnit unit) {
+        ExecutorService executor = RivetExecutors.newBlockingExecutor();
+        try {
+            return shutdown(executor, timeout, unit);
+        } finally {
+            RivetExecutors.release(executor);
+        }
+    }
+
+    /**
+     * destroy all created singletons, layer by layer of the dependency graph in reverse: a bean is destroyed before
+     * the beans it refers to, and the beans of a layer in parallel on the executor. Then the idle objects of all
+     * pools are destroyed, in a last layer; borrowed objects are left to their borrowers. A bean still being
+     * destroyed after the timeout, counted from the start of its layer, is cancelled and left behind, so that
+     * shutdown completes in bounded time; cancelling interrupts it, unless the executor is a ForkJoinPool. Then the
+     * singletons are dropped, and the container is no longer frozen.
+     */
+    public static synchronized ShutdownReport shutdown(ExecutorService executor, long timeout, TimeUnit unit) {
+        long start = System.nanoTime();
+        FrozenBeans f = frozen;
+        Map<String, Bean> created = new HashMap<>();
+        for (String name : beanstore.keySet()) {
+            Bean bean = beanDefs.get(name);
+            if (bean != null) created.put(name, bean);
+        }
+        List<List<String>> layers = new BeanGraph(created).layers();
+        Collections.reverse(layers);
+
+        Map<String, Throwable> failed = new TreeMap<>();
+        Set<String> timedOut = new TreeSet<>();
+        for (List<String> layer : layers) {
+            Map<String, Future<?>> destroying = new LinkedHashMap<>();
+            for (String name : layer) {
+                Object o = f != null ? f.get(name) : beanstore.get(name);
+                Bean bean = created.get(name);
+                destroying.put(name, executor.submit(() -> {
+                    bean.destroy(o);
+                    return null;
+                }));
+            }
+            awaitDestroyed(destroying, timeout, unit, failed, timedOut);
+        }
+
+        List<String> pools = new ArrayList<>();
+        Map<String, Future<?>> destroying = new LinkedHashMap<>();
+        for (Bean bean : new TreeMap<>(beanDefs).values()) {
+            BeanPool pool = bean.getPool();
+            if (pool == null) continue;
+            pools.add(bean.getName());
+            destroying.put(bean.getName(), executor.submit(() -> {
+                pool.destroyIdle();
+                return null;
+            }));
+        }
+        if (!pools.isEmpty()) {
+            layers.add(pools);
+            awaitDestroyed(destroying, timeout, unit, failed, timedOut);
+        }
+
+        frozen = null;
+        beanstore.clear();
+        return new ShutdownReport(layers, failed, timedOut, System.nanoTime() - start);
+    }
+
+    /**
+     * wait for the beans of a layer to be destroyed, until the timeout from now
+     */
+    private static void awaitDestroyed(Map<String, Future<?>> destroying, long timeout, TimeUnit unit,
+                                       Map<String, Throwable> failed, Set<String> timedOut) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Map.Entry<String, Future<?>> entry : destroying.entrySet()) {
+            try {
+                entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                failed.put(entry.getKey(), e.getCause());
+            } catch (TimeoutException e) {
+                entry.getValue().cancel(true);
+                timedOut.add(entry.getKey());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RivetException("Shutdown interrupted", e);
+            }
+        }
+    }
+
+    /**
+     * shutdown() when the JVM exits, e.g. within the termination grace period of a pod
+     */
+    public static void registerShutdownHook(long timeout, TimeUnit unit) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(timeout, unit), "rivet-shutdown"));
+    }
+
+    /**
+     * define a singleton bean created by the supplier; see registerSupplier(String, Class, Scope, Supplier)
+     */
+    public static <T> void registerSupplier(String name, Class<T> type, Supplier<? extends T> supplier) {
+        registerSupplier(name, type, Scope.SINGLETON, supplier);
+    }
+
+    /**
+     * define a bean created by calling the supplier, rather than through a cons: e.g. a plain lambda, which the JIT
+     * can inline into lookups of a hot prototype bean, or a factory of pooled or cached objects of one's own.
+     * The supplier looks up whatever other beans it needs itself; pooled beans take the default pool attributes.
+     * As those refs are not declared, creation keeps checking for cycles even after validate(); see
+     * registerSupplier(String, Class, Scope, Set, Supplier) to declare them.
+     */
+    public static <T> void registerSupplier(String name, Class<T> type, Scope scope, Supplier<? extends T> supplier) {
+        register(supplierBean(name, type, scope, Collections.emptySet(), supplier).refsUndeclared());
+    }
+
+    /**
+     * as registerSupplier(String, Class, Scope, Supplier), declaring the beans the supplier looks up. They count as
+     * dependencies of the bean, e.g. for validate(), eagerInit() and shutdown order.
+     */
+    public static <T> void registerSupplier(String name, Class<T> type, Scope scope, Set<String> dependencies,
+                                            Supplier<? extends T> supplier) {
+        register(supplierBean(name, type, scope, new LinkedHashSet<>(dependencies), supplier));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Bean supplierBean(String name, Class<?> type, Scope scope, Set<String> dependencies,
+                                     Supplier<?> supplier) {
+        if (name == null || name.isEmpty() || supplier == null) throw new RivetException("Bean invalid");
+        return Bean.generated(name, type.getName(), dependencies, (Supplier<Object>) supplier)
+                .scoped(scope.configName(), null, null);
+    }
+
+    private static void register(Bean bean) {
+        checkNotFrozen();
+        if (beanDefs.putIfAbsent(bean.getName(), bean) != null)
+            throw new RivetException("Duplicate bean names [" + bean.getName() + "]");
+        defsChanged();
     }
 
     /**
      * add newly created bean to beanstore
      */
     static void addBean(String ref, Object object) {
+        checkNotFrozen();
         if (ref != null && ref.length() > 0 && object != null)
             beanstore.put(ref, object);
         else throw new RivetException("Bean invalid");
     }
 
     /**
-     * read bean defs from XML file.
-     *  1. create XmlElement (generic DOM)
-     *  2. create semantic DOM from XmlElement
-     *      the semantic DOM is the beanDefs map
+     * read bean defs from XML file, streaming: each bean def is created as soon as its element has been read,
+     * without building a DOM of the whole file.
      *
      * schema:
      * <beans>
@@ -71,77 +749,403 @@ public class DiContainer {
      *
      *  bean with inline properties; default cons, fields set to default
      *  <bean name="compactEV" type="language.reflect.rivet.model.ElectricCar" />
+     *
+     *  bean with a scope other than singleton: prototype, thread or pooled; pools take optional
+     *  pool-size (default 8) and pool-idle-millis (default 60000, 0 to never evict) attributes
+     *  <bean name="engine" type="language.reflect.rivet.model.Engine" scope="pooled" pool-size="4" />
+     *
+     *  bean with lifecycle methods: init-method is called on every new object once injected, destroy-method on
+     *  the singleton at shutdown (else close(), if it is AutoCloseable)
+     *  <bean name="store" type="language.reflect.rivet.model.Store" init-method="open" destroy-method="flush" />
+     *
+     *  bean created by a factory method instead of a cons, taking the cons params: a static method of the type,
+     *  or an instance method of another bean, the factory-bean; setter params are set on what it returns
+     *  <bean name="clock" type="java.time.Clock" factory-method="systemUTC" />
+     *  <bean name="engine" type="language.reflect.rivet.model.Engine" factory-bean="plant" factory-method="build">
+     *      <cons-param name="cylinders" type="java.lang.Integer" value="4" />
+     *  </bean>
      * </beans>
      */
     static void createBeanDefs() {
-        XmlElement xml = parseXmlFromFile();
-        if (Objects.equals("beans", xml.getStartTag().getName())) {
-            RegularXml beansXml = (RegularXml) xml;
-
-            // iterate through each bean
-            for (XmlElement child : beansXml.getChildren()) {
-                String beanName = child.getStartTag().getAttributes().get("name");
-                String beanType =  child.getStartTag().getAttributes().get("type");
-
-                List<ConsParam> consParams = null;
-                Map<String, SetterParam> setterParams = null;
-
-                if (child instanceof RegularXml)  {
-                    // bean tag is a regular xml
-                    RegularXml beanXml = (RegularXml) child;
-
-                    // iterate through each cons-param or setter-param (both can exist)
-                    for (XmlElement paramXml : beanXml.getChildren()) {
-                        Map<String, String> attributes = paramXml.getStartTag().getAttributes();
-
-                        if (Objects.equals("cons-param", paramXml.getStartTag().getName())) {
-                            // cons-param
-                            if (consParams == null) consParams = new ArrayList<>();
-                            ConsParam consParam = new ConsParam(
-                                    attributes.get("name"),
-                                    attributes.get("type"),
-                                    attributes.get("value"),
-                                    attributes.get("ref")
-                            );
-                            consParams.add(consParam);
-                        }
-                        else if (Objects.equals("setter-param", paramXml.getStartTag().getName())){
-                            // setter-param
-                            if (setterParams == null) setterParams = new HashMap<>();
-                            SetterParam setterParam = new SetterParam(
-                                    attributes.get("name"),
-                                    attributes.get("type"),
-                                    attributes.get("value"),
-                                    attributes.get("ref")
-                            );
-                            setterParams.put(attributes.get("name"), setterParam);
-                        }
-                    }
-                }
-                beanDefs.put(beanName,
-                        new Bean(beanName, beanType, setterParams, consParams));    // last two null for inline defs
+        checkNotFrozen();
+        ContainerMetrics m = metrics;
+        long start = System.nanoTime();
+        try {
+            readConfig(Generated.beans);
+        } finally {
+            if (m != null) m.config("rivet-config.xml", start);
+        }
+    }
+
+    /**
+     * bean defs from the generated factories if they were generated from the config as it is, else from the
+     * snapshot or the XML
+     */
+    static void readConfig(GeneratedBeans generated) {
+        Path config = Paths.get("src/main/resources/rivet/", "rivet-config.xml");
+        generatedFactoriesStale = false;
+        if (generated != null) {
+            if (!Files.exists(config) || generated.checksum() == ConfigSnapshot.checksum(config)) {
+                // factories generated from the same config at build time; no XML parsing needed
+                loadGeneratedBeanDefs(generated);
+                return;
             }
+            generatedFactoriesStale = true;
+        }
+
+        Path snapshotPath = snapshot;
+        long key = 0;
+        if (snapshotPath != null) {
+            // bean defs resolved at an earlier startup from the same XML and classes; no parsing needed
+            key = ConfigSnapshot.key(config);
+            Map<String, Bean> snapshotDefs = ConfigSnapshot.read(snapshotPath, key);
+            if (snapshotDefs != null) {
+                beanDefs.putAll(snapshotDefs);
+                defsChanged();
+                return;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(config, StandardOpenOption.READ)) {
+            Map<String, Bean> xmlDefs = readBeanDefs(channel);
+            beanDefs.putAll(xmlDefs);
+            defsChanged();
+            if (snapshotPath != null) ConfigSnapshot.write(snapshotPath, key, xmlDefs.values());
+        } catch (IOException e) {
+            throw new RivetException("Cannot read config " + config, e);
+        }
+    }
+
+    /**
+     * read bean defs from all config fragments (.xml files) under a directory, e.g. one per module.
+     * Fragments are parsed in parallel; a bean name defined more than once fails the whole load.
+     */
+    public static void createBeanDefs(Path directory) {
+        loadFragments(ConfigFragments.inDirectory(directory));
+    }
+
+    /**
+     * read bean defs from config fragments on the classpath. A resource present in several jars is read from
+     * each of them.
+     */
+    public static void createBeanDefsFromClasspath(String... resources) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) loader = DiContainer.class.getClassLoader();
+        loadFragments(ConfigFragments.onClasspath(loader, resources));
+    }
+
+    private static void loadFragments(List<ConfigFragments.Fragment> fragments) {
+        checkNotFrozen();
+        ContainerMetrics m = metrics;
+        long start = System.nanoTime();
+        ExecutorService executor = RivetExecutors.newDefaultExecutor();
+        try {
+            beanDefs.putAll(ConfigFragments.load(fragments, beanDefs, executor));
+            defsChanged();
+        } finally {
+            RivetExecutors.release(executor);
+            if (m != null) m.config(fragments.size() + " fragments", start);
+        }
+    }
+
+    /**
+     * read bean defs in config order, in a single streaming pass over the channel
+     * @throws RivetException if a bean name is defined more than once
+     */
+    static Map<String, Bean> readBeanDefs(ReadableByteChannel channel) throws IOException {
+        Map<String, Bean> defs = new LinkedHashMap<>();
+        Set<String> duplicates = new TreeSet<>();
+        BeanDefReader reader = new BeanDefReader(channel);
+        for (Bean bean = reader.next(); bean != null; bean = reader.next())
+            if (defs.putIfAbsent(bean.getName(), bean) != null) duplicates.add(bean.getName());
+        if (!duplicates.isEmpty()) throw new RivetException("Duplicate bean names " + duplicates);
+        return defs;
+    }
+
+    /**
+     * generated factories on the classpath, looked up once
+     */
+    private static final class Generated {
+        static final GeneratedBeans beans = load();
+
+        private static GeneratedBeans load() {
+            Iterator<GeneratedBeans> iterator = ServiceLoader.load(GeneratedBeans.class).iterator();
+            return iterator.hasNext() ? iterator.next() : null;
         }
     }
 
     /**
-     * utility function to parse XML DOM from a well-formed xml config file.
-     * Standard location for the xml file: src/main/resources/rivet/rivet-config.xml
+     * bean defs backed by generated factories
      */
-    private static XmlElement parseXmlFromFile() {
-        String location = "src/main/resources/rivet/";
-        Path filePath = Paths.get(location, "rivet-config.xml");
+    static void loadGeneratedBeanDefs(GeneratedBeans generated) {
+        checkNotFrozen();
+        for (int i = 0; i < generated.size(); i++) {
+            final int index = i;
+            String beanName = generated.name(i);
+            Set<String> consDependencies = new LinkedHashSet<>(Arrays.asList(generated.consDependencies(i)));
+            Set<String> dependencies = new LinkedHashSet<>(Arrays.asList(generated.dependencies(i)));
+            String[] scope = generated.scope(i);
+            String[] lifecycle = generated.lifecycle(i);
+            beanDefs.put(beanName, Bean.generated(beanName, generated.type(i), consDependencies, dependencies,
+                    () -> generated.construct(index), o -> generated.inject(index, o))
+                    .scoped(scope[0], scope[1], scope[2]).lifecycle(lifecycle[0], lifecycle[1]));
+        }
+        defsChanged();
+    }
 
-        byte[] fileContentsInBytes = null;
+    /**
+     * watch a config file, and reload it whenever it changes (see reload()). The config is loaded right away, if
+     * its bean defs are not loaded yet. The listener, if any, gets the outcome of each reload.
+     */
+    public static ConfigWatcher watchConfig(Path config, Consumer<ReloadReport> listener) {
         try {
-            fileContentsInBytes = Files.readAllBytes(filePath);
+            Map<String, Bean> defs = ConfigWatcher.read(config);
+            Set<String> loaded = new HashSet<>(defs.keySet());
+            loaded.retainAll(beanDefs.keySet());
+            reload(loaded, defs);
+            return new ConfigWatcher(config, new HashSet<>(defs.keySet()), listener);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RivetException("Cannot watch config " + config, e);
+        }
+    }
+
+    /**
+     * replace the bean defs named previous (as loaded earlier from a config) by those of the config as it is now,
+     * rebuilding only what changed.
+     *
+     * Bean defs are compared one by one; the changed, added and removed ones, and every bean which depends on them
+     * directly or transitively, are affected. Affected singletons which were created are rebuilt with their new
+     * defs, into a staging area, resolving refs to other affected beans from there too; the rest of the container
+     * is untouched and in use meanwhile. Then the new defs and objects are swapped in together. Affected beans
+     * which were not created yet are simply created from their new defs, on demand.
+     * The replaced and dropped singletons are destroyed after the swap, dependents first, so that their resources
+     * are released. Objects which already resolved a lazy ref to an affected bean keep the old one.
+     */
+    public static synchronized ReloadReport reload(Set<String> previous, Map<String, Bean> next) {
+        checkNotFrozen();
+        long start = System.nanoTime();
+
+        Set<String> added = new TreeSet<>();
+        Set<String> changed = new TreeSet<>();
+        Set<String> removed = new TreeSet<>();
+        for (String name : previous)
+            if (!next.containsKey(name)) removed.add(name);
+        for (Bean bean : next.values()) {
+            String name = bean.getName();
+            Bean current = beanDefs.get(name);
+            if (!previous.contains(name)) {
+                if (current != null) throw new RivetException("Duplicate bean names [" + name + "]");
+                added.add(name);
+            } else if (!bean.sameDefinition(current)) {
+                changed.add(name);
+            }
+        }
+
+        // bean defs as they will be
+        Map<String, Bean> defs = new HashMap<>(beanDefs);
+        defs.keySet().removeAll(removed);
+        for (String name : added) defs.put(name, next.get(name));
+        for (String name : changed) defs.put(name, next.get(name));
+
+        Set<String> changes = new HashSet<>(added);
+        changes.addAll(changed);
+        changes.addAll(removed);
+        Set<String> affected = dependentsClosure(defs, changes);
+        // released defs cannot create objects: affected beans are recreated from their new, same defs
+        for (String name : affected) {
+            Bean bean = defs.get(name);
+            if (bean != null && bean.isReleased()) defs.put(name, next.get(name));
+        }
+        Staging staging = stage(defs, affected);
+        Map<String, Object> staged = staging.staged;
+
+        // objects swapped out, with the defs they were created from
+        Map<String, Object> replaced = new HashMap<>();
+        Map<String, Bean> replacedDefs = new HashMap<>();
+        for (String name : affected) {
+            Object old = beanstore.get(name);
+            if (old == null || old == staged.get(name)) continue;
+            replaced.put(name, old);
+            replacedDefs.put(name, beanDefs.get(name));
+        }
+
+        // swap in: new defs first, so that a lookup in between creates from the new def if anything
+        for (String name : affected) if (defs.containsKey(name)) beanDefs.put(name, defs.get(name));
+        for (String name : removed) beanDefs.remove(name);
+        beanstore.putAll(staged);
+        for (String name : affected)
+            if (!staged.containsKey(name)) beanstore.remove(name);
+        staging.swapped = true;
+        defsChanged();
+
+        Map<String, Throwable> failed = destroy(replaced, replacedDefs);
+        return new ReloadReport(added, changed, removed, new TreeSet<>(staged.keySet()),
+                new TreeSet<>(replaced.keySet()), failed, System.nanoTime() - start);
+    }
+
+    /**
+     * destroy singletons which were dropped from the container, one after the other, dependents first
+     * @return <bean name, what its destroy method threw>
+     */
+    private static Map<String, Throwable> destroy(Map<String, Object> objects, Map<String, Bean> defs) {
+        Map<String, Throwable> failed = new TreeMap<>();
+        if (objects.isEmpty()) return failed;
+        List<List<String>> layers = new BeanGraph(defs).layers();
+        Collections.reverse(layers);
+        for (List<String> layer : layers) {
+            for (String name : layer) {
+                try {
+                    defs.get(name).destroy(objects.get(name));
+                } catch (Exception e) {
+                    failed.put(name, e);
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * the changed beans, and all beans which depend on them through refs, transitively
+     */
+    private static Set<String> dependentsClosure(Map<String, Bean> defs, Set<String> changes) {
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (Bean bean : defs.values())
+            for (String dependency : bean.getDependencies())
+                dependents.computeIfAbsent(dependency, d -> new ArrayList<>()).add(bean.getName());
+
+        Set<String> affected = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(changes);
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (affected.add(name)) pending.addAll(dependents.getOrDefault(name, Collections.emptyList()));
+        }
+        return affected;
+    }
+
+    /**
+     * new objects for the affected singletons created so far, built from the new defs. Refs to affected beans are
+     * resolved within the staging area, refs to other beans from the container; and every ref from the container,
+     * once swapped in, for lazy refs resolved late.
+     */
+    private static Staging stage(Map<String, Bean> defs, Set<String> affected) {
+        Staging staging = new Staging(defs, affected);
+        for (String name : affected) {
+            Bean bean = defs.get(name);
+            if (bean != null && bean.getScope() == Scope.SINGLETON && beanstore.containsKey(name)) staging.apply(name);
+        }
+        return staging;
+    }
+
+    private static final class Staging implements Function<String, Object> {
+        final Map<String, Bean> defs;
+        final Set<String> affected;
+        final Map<String, Object> staged = new HashMap<>();
+        /* affected beans being staged, with the early references of singletons once constructed */
+        final Map<String, Object> inProgress = new HashMap<>();
+        volatile boolean swapped;
+
+        Staging(Map<String, Bean> defs, Set<String> affected) {
+            this.defs = defs;
+            this.affected = affected;
         }
 
-        String data = new String(fileContentsInBytes);
-        XmlElement xml = Parser.parse(data);
-        return xml;
+        @Override
+        public Object apply(String ref) {
+            if (swapped || !affected.contains(ref)) return getBean(ref);
+            Object o = staged.get(ref);
+            if (o != null) return o;
+            Bean bean = defs.get(ref);
+            if (bean == null) return null;
+            if (inProgress.containsKey(ref)) {
+                Object early = inProgress.get(ref);
+                if (early == null) throw new RivetException("Circular reference to bean " + ref);
+                return early;
+            }
+            boolean singleton = bean.getScope() == Scope.SINGLETON;
+            inProgress.put(ref, null);
+            try {
+                o = bean.plan().executeWith(this, singleton ? early -> inProgress.put(ref, early) : null);
+            } finally {
+                inProgress.remove(ref);
+            }
+            if (singleton) staged.put(ref, o);
+            return o;
+        }
+    }
+
+    /**
+     * keep a binary snapshot of the resolved bean defs at this path, and load bean defs from it instead of
+     * parsing the XML, as long as the XML is unchanged. null disables snapshots.
+     */
+    public static void useSnapshot(Path snapshotPath) {
+        snapshot = snapshotPath;
+    }
+
+    /**
+     * drop the params and creation plan of each singleton def once its singleton is created, keeping only what the
+     * dependency order needs; for configs with many beans, whose defs would otherwise stay on the heap for good.
+     * Released singletons cannot be created again, e.g. after shutdown(), and are recreated by a reload.
+     */
+    public static void releaseDefinitions(boolean release) {
+        releaseDefinitions = release;
+    }
+
+    /**
+     * estimated heap footprint of the bean defs, per def, and of the strings and params they share
+     */
+    public static FootprintReport footprint() {
+        Map<String, Long> bytes = new TreeMap<>();
+        int released = 0;
+        for (Bean bean : beanDefs.values()) {
+            bytes.put(bean.getName(), bean.footprint());
+            if (bean.isReleased()) released++;
+        }
+        return new FootprintReport(bytes, Symbols.bytes(), Symbols.size(), released);
+    }
+
+    /**
+     * start recording lookups, config reads and bean creations, in new metrics which are also registered as the
+     * MBean org.mayukh.rivet:type=ContainerMetrics
+     */
+    public static ContainerMetrics enableMetrics() {
+        ContainerMetrics m = new ContainerMetrics();
+        m.register();
+        metrics = m;
+        return m;
+    }
+
+    /**
+     * stop recording; the metrics recorded so far are still readable from the object returned by enableMetrics()
+     */
+    public static void disableMetrics() {
+        metrics = null;
+        ContainerMetrics.unregister();
+    }
+
+    /**
+     * current metrics, or null when disabled
+     */
+    public static ContainerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * drop what is derived from the bean defs, and keep builds racing with the change from publishing what they
+     * derived from the defs before it
+     */
+    private static void defsChanged() {
+        synchronized (derivedLock) {
+            defsVersion++;
+            typeIndex = null;
+            cycleMembers = null;
+            validated = false;
+        }
+    }
+
+    private static long defsVersion() {
+        synchronized (derivedLock) {
+            return defsVersion;
+        }
     }
 
     // for testing only
@@ -154,10 +1158,19 @@ public class DiContainer {
     }
 
     static void reset() {
-        Set<String> refs = new HashSet<>(beanDefs.keySet());    // avoid concurrent modification exception
-        for (String ref : refs) {
-            beanstore.remove(ref);
-            beanDefs.remove(ref);
+        Map<String, Object> created = new HashMap<>(beanstore);
+        Map<String, Bean> createdDefs = new HashMap<>();
+        created.keySet().retainAll(beanDefs.keySet());
+        for (String name : created.keySet()) createdDefs.put(name, beanDefs.get(name));
+        frozen = null;
+        releaseDefinitions = false;
+        beanstore.clear();
+        try {
+            destroy(created, createdDefs);
+        } catch (RivetException e) {
+            // defs changed under created beans; nothing left to order them by, and a reset has to go through
         }
+        beanDefs.clear();
+        defsChanged();
     }
 }
@@ -0,0 +1,65 @@
+package org.mayukh.rivet.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+
+/**
+ * Direct writes to the fields of a bean, for setter params and @Riveted fields without a setX method.
+ *
+ * The field is looked up once, made accessible, and turned into a method handle, so that private fields, and final
+ * fields which are only assigned once right after construction, are injected without setter boilerplate and without
+ * reflective calls per object.
+ */
+public final class FieldSetters {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private FieldSetters() {}
+
+    /**
+     * handle of type (Object, Object)void writing the instance field, declared by the type or a superclass
+     */
+    static MethodHandle find(Class<?> type, String name) throws ReflectiveOperationException {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            Field field;
+            try {
+                field = c.getDeclaredField(name);
+            } catch (NoSuchFieldException e) {
+                continue;
+            }
+            if (Modifier.isStatic(field.getModifiers()))
+                throw new NoSuchFieldException("Field " + name + " of " + type.getName() + " is static");
+            field.setAccessible(true);
+            return LOOKUP.unreflectSetter(field).asType(SETTER_TYPE);
+        }
+        throw new NoSuchFieldException("No set" + Character.toUpperCase(name.charAt(0)) + name.substring(1) +
+                " method or " + name + " field in " + type.getName());
+    }
+
+    /**
+     * writer of the field, for generated factories, which cannot access private fields themselves
+     */
+    public static BiConsumer<Object, Object> of(Class<?> type, String name) {
+        MethodHandle setter;
+        try {
+            setter = find(type, name);
+        } catch (ReflectiveOperationException e) {
+            throw new RivetException("Cannot inject field " + name + " of " + type.getName(), e);
+        }
+        return (o, value) -> {
+            try {
+                setter.invokeExact(o, value);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RivetException("Cannot set " + name, t);
+            }
+        };
+    }
+}
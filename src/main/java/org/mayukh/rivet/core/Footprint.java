@@ -0,0 +1,73 @@
+package org.mayukh.rivet.core;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Estimated heap sizes, as laid out by a 64-bit HotSpot JVM with compressed references: 12 byte object headers,
+ * 16 byte array headers, 4 byte references, objects aligned to 8 bytes. Good enough to compare bean defs with
+ * each other, without an agent to measure them.
+ */
+final class Footprint {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    /* whether strings hold a byte[] (Java 9+, assuming Latin-1), rather than a char[] */
+    private static final boolean COMPACT_STRINGS = compactStrings();
+
+    private static final ClassValue<Long> SHALLOW = new ClassValue<Long>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long bytes = OBJECT_HEADER;
+            for (Class<?> c = type; c != null; c = c.getSuperclass())
+                for (Field field : c.getDeclaredFields())
+                    if (!Modifier.isStatic(field.getModifiers())) bytes += size(field.getType());
+            return align(bytes);
+        }
+    };
+
+    private Footprint() {}
+
+    /**
+     * an object of the type, without what its fields refer to
+     */
+    static long shallow(Class<?> type) {
+        return SHALLOW.get(type);
+    }
+
+    /**
+     * an array of references
+     */
+    static long array(int length) {
+        return align(ARRAY_HEADER + (long) REFERENCE * length);
+    }
+
+    /**
+     * a string with its chars
+     */
+    static long of(String s) {
+        return shallow(String.class) + align(ARRAY_HEADER + (long) s.length() * (COMPACT_STRINGS ? 1 : 2));
+    }
+
+    private static long size(Class<?> type) {
+        if (!type.isPrimitive()) return REFERENCE;
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        return 1;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static boolean compactStrings() {
+        try {
+            return String.class.getDeclaredField("value").getType() == byte[].class;
+        } catch (NoSuchFieldException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.mayukh.rivet.core;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Estimated heap footprint of the bean defs: the bytes held by each def alone, and the bytes of the strings and
+ * params which defs share through the symbol table. Estimates assume a 64-bit JVM with compressed references.
+ */
+public class FootprintReport {
+
+    private final Map<String, Long> bytes;
+    private final long sharedBytes;
+    private final int symbols;
+    private final int released;
+
+    FootprintReport(Map<String, Long> bytes, long sharedBytes, int symbols, int released) {
+        this.bytes = Collections.unmodifiableMap(bytes);
+        this.sharedBytes = sharedBytes;
+        this.symbols = symbols;
+        this.released = released;
+    }
+
+    /**
+     * <bean name, estimated bytes held by its def alone>
+     */
+    public Map<String, Long> getBytes() {
+        return bytes;
+    }
+
+    /**
+     * estimated bytes of the shared strings and params, counted once for all defs
+     */
+    public long getSharedBytes() {
+        return sharedBytes;
+    }
+
+    public long getTotalBytes() {
+        long total = sharedBytes;
+        for (long b : bytes.values()) total += b;
+        return total;
+    }
+
+    /**
+     * strings and params in the symbol table
+     */
+    public int getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * defs whose params were released once their singleton was created
+     */
+    public int getReleased() {
+        return released;
+    }
+
+    @Override
+    public String toString() {
+        return "FootprintReport{" +
+                "\n\tdefs=" + bytes.size() +
+                ", \n\treleased=" + released +
+                ", \n\tsymbols=" + symbols +
+                ", \n\tsharedBytes=" + sharedBytes +
+                ", \n\ttotalBytes=" + getTotalBytes() +
+                "\n}";
+    }
+}
@@ -0,0 +1,59 @@
+package org.mayukh.rivet.core;
+
+import java.util.Map;
+
+/**
+ * Immutable table of the created singletons, for lookups once the container is frozen.
+ *
+ * Open addressing with linear probing over parallel arrays, at most half full, so that a lookup is a few array
+ * reads: no locking, no allocation, and no node objects to chase. Bean names are Strings, which cache their hash.
+ */
+final class FrozenBeans {
+
+    private final String[] names;
+    private final int[] hashes;
+    private final Object[] beans;
+    private final int mask;
+    private final int shift;
+
+    FrozenBeans(Map<String, Object> beanstore) {
+        int capacity = Integer.highestOneBit(Math.max(2, beanstore.size()) * 2 - 1) << 1;
+        names = new String[capacity];
+        hashes = new int[capacity];
+        beans = new Object[capacity];
+        mask = capacity - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        for (Map.Entry<String, Object> entry : beanstore.entrySet()) {
+            int hash = entry.getKey().hashCode();
+            int i = slot(hash);
+            while (names[i] != null) i = (i + 1) & mask;
+            names[i] = entry.getKey();
+            hashes[i] = hash;
+            beans[i] = entry.getValue();
+        }
+    }
+
+    /**
+     * home slot of a hash: its top bits after multiplying by the golden ratio (fibonacci hashing). Names like
+     * bean1, bean2.. have consecutive hashes, which would otherwise fill runs of consecutive slots.
+     */
+    private int slot(int hash) {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * the bean of the name, or null if it is not in the table
+     */
+    Object get(String name) {
+        int hash = name.hashCode();
+        for (int i = slot(hash); ; i = (i + 1) & mask) {
+            String candidate = names[i];
+            if (candidate == null) return null;
+            if (candidate == name || (hashes[i] == hash && candidate.equals(name))) return beans[i];
+        }
+    }
+
+    int capacity() {
+        return names.length;
+    }
+}
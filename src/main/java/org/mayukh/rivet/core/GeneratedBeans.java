@@ -0,0 +1,55 @@
+package org.mayukh.rivet.core;
+
+/**
+ * Bean factories generated ahead of time from rivet-config.xml, by RivetAotProcessor (maven profile aot).
+ *
+ * Beans are addressed by their index in the config. construct(i) and inject(i, o) call the constructor and the
+ * setters of bean i directly, and refs through DiContainer.getBean(), so no reflection or XML parsing is left at
+ * runtime. The container publishes the constructed object before injecting it, so that setter cycles resolve.
+ * The generated implementation is found through java.util.ServiceLoader, and is only used as long as the config
+ * has not changed since it was generated.
+ */
+public interface GeneratedBeans {
+
+    /**
+     * checksum of the config the factories were generated from, as ConfigSnapshot.checksum()
+     */
+    long checksum();
+
+    int size();
+
+    String name(int i);
+
+    String type(int i);
+
+    /**
+     * names of the beans that bean i refers to
+     */
+    String[] dependencies(int i);
+
+    /**
+     * names of the beans that construct(i) refers to: the factory bean and the refs of the cons params of bean i
+     */
+    String[] consDependencies(int i);
+
+    /**
+     * scope, pool-size and pool-idle-millis attributes of bean i as in the config, null where absent
+     */
+    String[] scope(int i);
+
+    /**
+     * init-method and destroy-method attributes of bean i as in the config, null where absent. inject(i, o)
+     * already calls the init method.
+     */
+    String[] lifecycle(int i);
+
+    /**
+     * a new object of bean i, through its cons or factory method
+     */
+    Object construct(int i);
+
+    /**
+     * set the setter params and @Riveted fields of bean i on an object of construct(i), then call its init method
+     */
+    void inject(int i, Object o);
+}
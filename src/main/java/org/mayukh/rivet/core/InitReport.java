@@ -0,0 +1,82 @@
+package org.mayukh.rivet.core;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of an eager initialization: the layers in which beans were created, time taken per bean,
+ * and the critical path, i.e. the chain of dependent beans that bounds the wall clock time.
+ */
+public class InitReport {
+
+    private final List<List<String>> layers;
+    private final Map<String, Long> creationNanos;
+    private final long wallNanos;
+
+    private final List<String> criticalPath;
+    private final long criticalPathNanos;
+
+    InitReport(BeanGraph graph, List<List<String>> layers, Map<String, Long> creationNanos, long wallNanos) {
+        this.layers = layers;
+        this.creationNanos = creationNanos;
+        this.wallNanos = wallNanos;
+
+        /* longest path by creation time; layers are in topological order, so dependencies finish first */
+        Map<String, Long> finish = new HashMap<>();
+        Map<String, String> previous = new HashMap<>();
+        String last = null;
+        for (List<String> layer : layers) {
+            for (String name : layer) {
+                long start = 0;
+                for (String dependency : graph.getDependencies(name)) {
+                    Long dependencyFinish = finish.get(dependency);
+                    if (dependencyFinish != null && dependencyFinish > start) {
+                        start = dependencyFinish;
+                        previous.put(name, dependency);
+                    }
+                }
+                finish.put(name, start + creationNanos.getOrDefault(name, 0L));
+                if (last == null || finish.get(name) > finish.get(last)) last = name;
+            }
+        }
+
+        LinkedList<String> path = new LinkedList<>();
+        for (String name = last; name != null; name = previous.get(name)) path.addFirst(name);
+        this.criticalPath = Collections.unmodifiableList(path);
+        this.criticalPathNanos = last == null ? 0 : finish.get(last);
+    }
+
+    public List<List<String>> getLayers() {
+        return layers;
+    }
+
+    public Map<String, Long> getCreationNanos() {
+        return creationNanos;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * beans in dependency order, from the first created to the last
+     */
+    public List<String> getCriticalPath() {
+        return criticalPath;
+    }
+
+    public long getCriticalPathNanos() {
+        return criticalPathNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "InitReport{" +
+                "\n\tbeans=" + creationNanos.size() +
+                ", \n\tlayers=" + layers.size() +
+                ", \n\twallMicros=" + TimeUnit.NANOSECONDS.toMicros(wallNanos) +
+                ", \n\tcriticalPath=" + criticalPath +
+                ", \n\tcriticalPathMicros=" + TimeUnit.NANOSECONDS.toMicros(criticalPathNanos) +
+                "\n}";
+    }
+}
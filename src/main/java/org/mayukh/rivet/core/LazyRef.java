@@ -0,0 +1,97 @@
+package org.mayukh.rivet.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Lazily resolved ref to a bean, injected instead of the bean for lazy params and @Riveted(lazy = true) fields.
+ *
+ * For a Supplier type, the Supplier itself is injected; for an interface type, a proxy which gets the bean on its
+ * first method call and forwards every call but equals, hashCode and toString to it. Either way the bean is looked
+ * up in the container once, on first use, so it is not created with the object it is injected into.
+ */
+public final class LazyRef implements Supplier<Object>, InvocationHandler {
+
+    private final String ref;
+    private final Function<String, Object> refs;
+    private volatile Object target;
+
+    private LazyRef(String ref, Function<String, Object> refs) {
+        this.ref = ref;
+        this.refs = refs;
+    }
+
+    /**
+     * whether refs of the type can be injected lazily
+     */
+    static boolean supports(Class<?> type) {
+        return type == Supplier.class || type.isInterface();
+    }
+
+    /**
+     * lazy ref to a bean, as an object of the type: a Supplier, or a proxy implementing the interface type
+     */
+    public static Object of(Class<?> type, String ref) {
+        return of(type, ref, DiContainer::getBean);
+    }
+
+    /**
+     * as of(type, ref), with the bean looked up through refs instead of the container
+     */
+    static Object of(Class<?> type, String ref, Function<String, Object> refs) {
+        LazyRef lazy = new LazyRef(ref, refs);
+        if (type == Supplier.class) return lazy;
+        if (!type.isInterface())
+            throw new RivetException("Lazy ref " + ref + " needs an interface or Supplier type, not " + type.getName());
+        ClassLoader loader = type.getClassLoader();
+        if (loader == null) loader = LazyRef.class.getClassLoader();
+        return Proxy.newProxyInstance(loader, new Class<?>[]{type}, lazy);
+    }
+
+    @Override
+    public Object get() {
+        Object o = target;
+        if (o == null) {
+            o = refs.apply(ref);
+            if (o == null) throw new RivetException("Lazy ref to undefined bean " + ref);
+            target = o;
+        }
+        return o;
+    }
+
+    /**
+     * forward the call to the bean, resolving it first. equals, hashCode and toString are answered by the proxy
+     * itself, so that e.g. putting it in a set or logging it does not create the bean.
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return toString();
+            }
+        }
+        Object o = get();
+        // the interface may not be public
+        method.setAccessible(true);
+        try {
+            return method.invoke(o, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public String toString() {
+        Object o = target;
+        return o == null ? "LazyRef{" + ref + ", not resolved}" : o.toString();
+    }
+}
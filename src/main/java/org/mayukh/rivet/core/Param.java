@@ -0,0 +1,156 @@
+package org.mayukh.rivet.core;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * A cons or setter param of a bean: either a literal value, or a ref to another bean.
+ *
+ * Literal values are converted once, when the param is defined, and the converted constant is reused for every
+ * object created, if its type is immutable; else it is copied or converted again (see Converters.valueFor()).
+ * A ref is looked up in the container on every create(). A lazy ref is injected as a LazyRef,
+ * which looks up the bean on first use instead.
+ *
+ * Params are immutable, and their strings interned, so that equal params are shared between beans (see Symbols).
+ */
+abstract class Param {
+
+    private final String name;
+    private final String type;
+    private final String value;
+    private final String ref;
+    private final boolean isRef;
+    private final boolean lazy;
+
+    /* value converted to type; null for refs */
+    private final Object constant;
+    private final boolean shareConstant;
+
+    /* resolved on demand for refs, since only the creation plan needs it */
+    private volatile Class<?> typeClass;
+
+    Param(String name, String type, String value, String ref) {
+        this(name, type, value, ref, false);
+    }
+
+    Param(String name, String type, String value, String ref, boolean lazy) {
+        if (name == null || type == null) throw new IllegalArgumentException("name and type cannot be null");
+        if (value != null && ref != null) throw new IllegalArgumentException("only one of value or ref can exist");
+        if (lazy && ref == null) throw new IllegalArgumentException("only a ref can be lazy");
+
+        this.name = Symbols.intern(name);
+        this.type = Symbols.intern(type);
+        this.value = Symbols.intern(value);
+        this.ref = Symbols.intern(ref);
+        this.isRef = ref != null;
+        this.lazy = lazy;
+        if (lazy) {
+            this.typeClass = resolve(type);
+            if (!LazyRef.supports(typeClass))
+                throw new IllegalArgumentException("lazy ref " + name + " should be of an interface or Supplier " +
+                        "type, not " + type);
+        }
+
+        if (!isRef) {
+            this.typeClass = resolve(type);
+            if (!Converters.supports(typeClass))
+                throw new IllegalArgumentException("only types with a converter can be directly created with value. " +
+                        "use reference for other types");
+            this.constant = value == null ? null : Converters.convert(value, typeClass);
+        } else {
+            this.constant = null;
+        }
+        this.shareConstant = constant == null || Converters.isImmutable(typeClass);
+    }
+
+    private static Class<?> resolve(String type) {
+        try {
+            return Types.forName(type);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("unknown type " + type, e);
+        }
+    }
+
+    /**
+     * tag name in the config
+     */
+    abstract String tag();
+
+    @Override
+    public String toString() {
+        String prefix = "<" + tag() + " name=\"" + name + "\" class=\"" + type;
+        String suffix = isRef ? "\" ref=\"" + ref + (lazy ? "\" lazy=\"true" : "") + "\" />"
+                : "\" value=\"" + value + "\" />";
+        return prefix + suffix;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * whether the ref is looked up on first use, rather than when the object is created
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    Class<?> getTypeClass() {
+        Class<?> c = typeClass;
+        if (c == null) {
+            c = resolve(type);
+            typeClass = c;
+        }
+        return c;
+    }
+
+    /**
+     * the converted value, or the referred bean from the container
+     */
+    public Object create() {
+        if (isRef) return lazy ? LazyRef.of(getTypeClass(), ref) : DiContainer.getBean(ref);
+        return shareConstant ? constant : Converters.valueFor(constant, value, typeClass);
+    }
+
+    /**
+     * as create(), with the ref resolved through refs instead of the container, on create() or on first use if lazy
+     */
+    Object create(Function<String, Object> refs) {
+        if (isRef) return lazy ? LazyRef.of(getTypeClass(), ref, refs) : refs.apply(ref);
+        return create();
+    }
+
+    /**
+     * same name, type, value, ref and laziness, in the same kind of param
+     */
+    boolean sameDefinition(Param other) {
+        return other != null && getClass() == other.getClass() && name.equals(other.name) &&
+                type.equals(other.type) && Objects.equals(value, other.value) && Objects.equals(ref, other.ref) &&
+                lazy == other.lazy;
+    }
+
+    /**
+     * equal params have the same definition, so that they can be shared (see Symbols)
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Param && sameDefinition((Param) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), name, type, value, ref, lazy);
+    }
+}
@@ -0,0 +1,116 @@
+package org.mayukh.rivet.core;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of reloading a config: bean defs added, changed and removed, the singletons rebuilt because they
+ * changed or depend on a bean that did, and the old singletons destroyed; or why the config was rejected.
+ */
+public class ReloadReport {
+
+    private final Set<String> added;
+    private final Set<String> changed;
+    private final Set<String> removed;
+    private final Set<String> rebuilt;
+    private final Set<String> destroyed;
+    private final Map<String, Throwable> destroyFailed;
+    private final long nanos;
+
+    /* why the config was rejected; null if it was loaded */
+    private final Throwable failure;
+
+    ReloadReport(Set<String> added, Set<String> changed, Set<String> removed, Set<String> rebuilt,
+                 Set<String> destroyed, Map<String, Throwable> destroyFailed, long nanos) {
+        this.added = Collections.unmodifiableSet(added);
+        this.changed = Collections.unmodifiableSet(changed);
+        this.removed = Collections.unmodifiableSet(removed);
+        this.rebuilt = Collections.unmodifiableSet(rebuilt);
+        this.destroyed = Collections.unmodifiableSet(destroyed);
+        this.destroyFailed = Collections.unmodifiableMap(destroyFailed);
+        this.nanos = nanos;
+        this.failure = null;
+    }
+
+    private ReloadReport(Throwable failure, long nanos) {
+        this.added = this.changed = this.removed = this.rebuilt = this.destroyed = Collections.emptySet();
+        this.destroyFailed = Collections.emptyMap();
+        this.nanos = nanos;
+        this.failure = failure;
+    }
+
+    /**
+     * a config which could not be loaded; the container keeps the bean defs it had
+     */
+    static ReloadReport failed(Throwable failure, long nanos) {
+        return new ReloadReport(failure, nanos);
+    }
+
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * singletons replaced by new objects
+     */
+    public Set<String> getRebuilt() {
+        return rebuilt;
+    }
+
+    /**
+     * old singletons which were replaced or dropped, and then destroyed
+     */
+    public Set<String> getDestroyed() {
+        return destroyed;
+    }
+
+    /**
+     * <bean name, what the destroy method of its old singleton threw>
+     */
+    public Map<String, Throwable> getDestroyFailed() {
+        return destroyFailed;
+    }
+
+    /**
+     * why the config was rejected, e.g. it could not be read or parsed; null if it was loaded
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        if (failure != null) return "ReloadReport{\n\tfailure=" + failure + "\n}";
+        return "ReloadReport{" +
+                "\n\tadded=" + added +
+                ", \n\tchanged=" + changed +
+                ", \n\tremoved=" + removed +
+                ", \n\trebuilt=" + rebuilt +
+                ", \n\tdestroyed=" + destroyed +
+                ", \n\tdestroyFailed=" + destroyFailed.keySet() +
+                ", \n\tmicros=" + TimeUnit.NANOSECONDS.toMicros(nanos) +
+                "\n}";
+    }
+}
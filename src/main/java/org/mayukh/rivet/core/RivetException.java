@@ -8,4 +8,8 @@ public class RivetException extends RuntimeException {
     public RivetException(String message) {
         super("[RivetError] " + message);
     }
+
+    public RivetException(String message, Throwable cause) {
+        super("[RivetError] " + message, cause);
+    }
 }
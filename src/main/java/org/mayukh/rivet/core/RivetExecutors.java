@@ -0,0 +1,61 @@
+package org.mayukh.rivet.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used by the container for parallel work.
+ * Virtual threads are used where the JDK has them (21+), else the common ForkJoinPool, or for blocking tasks which
+ * may hang, a pool of daemon threads of their own.
+ */
+final class RivetExecutors {
+
+    private RivetExecutors() {}
+
+    /**
+     * a new virtual thread per task executor if available, else the common pool
+     */
+    static ExecutorService newDefaultExecutor() {
+        ExecutorService executor = newVirtualThreadExecutor();
+        return executor != null ? executor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * a new executor for tasks which may block or hang, e.g. destroy methods: virtual threads if available, else a
+     * cached pool of daemon threads. Unlike the common pool, both interrupt cancelled tasks, and a hung task only
+     * holds a thread of its own rather than a shared worker.
+     */
+    static ExecutorService newBlockingExecutor() {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor != null) return executor;
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "rivet-blocking-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * looked up reflectively to stay compatible with Java 8; null if not available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * shut down an executor from newDefaultExecutor() or newBlockingExecutor(); the common pool is shared, and is
+     * left alone
+     */
+    static void release(ExecutorService executor) {
+        if (executor != ForkJoinPool.commonPool()) executor.shutdown();
+    }
+}
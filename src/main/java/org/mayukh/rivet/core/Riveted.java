@@ -13,4 +13,10 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.FIELD)
 public @interface Riveted {
+
+    /**
+     * inject a proxy which gets the bean on first use, instead of the bean itself. The field should be of an
+     * interface type, or a java.util.function.Supplier of the bean.
+     */
+    boolean lazy() default false;
 }
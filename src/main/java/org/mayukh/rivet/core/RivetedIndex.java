@@ -0,0 +1,118 @@
+package org.mayukh.rivet.core;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * @Riveted fields per class, as written at compile time by RivetedIndexProcessor.
+ * All index files on the classpath are read once, on first use.
+ */
+final class RivetedIndex {
+
+    static final String LOCATION = "META-INF/rivet/riveted.index";
+
+    /**
+     * indexed class: its superclass (empty for java.lang.Object), its @Riveted fields as <field name, type>,
+     * and those of them which are lazy
+     */
+    static final class Entry {
+        final String superclass;
+        final Map<String, String> fields;
+        final Set<String> lazyFields;
+
+        Entry(String superclass, Map<String, String> fields, Set<String> lazyFields) {
+            this.superclass = superclass;
+            this.fields = fields;
+            this.lazyFields = lazyFields;
+        }
+    }
+
+    private RivetedIndex() {}
+
+    private static final class Holder {
+        static final Map<String, Entry> entries = new HashMap<>();
+        static final CRC32 checksum = new CRC32();
+
+        static {
+            load(entries, checksum);
+        }
+    }
+
+    /**
+     * index entry of a class, or null if the class was not compiled with the processor
+     */
+    static Entry get(String type) {
+        return Holder.entries.get(type);
+    }
+
+    /**
+     * checksum of all index files on the classpath, in classpath order
+     */
+    static long checksum() {
+        return Holder.checksum.getValue();
+    }
+
+    private static void load(Map<String, Entry> entries, CRC32 checksum) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) loader = RivetedIndex.class.getClassLoader();
+        try {
+            Enumeration<URL> resources = loader.getResources(LOCATION);
+            while (resources.hasMoreElements()) read(resources.nextElement(), entries, checksum);
+        } catch (IOException e) {
+            e.printStackTrace();    // classes are scanned reflectively instead
+        }
+    }
+
+    /**
+     * class=superclass;field:type,field:type:lazy
+     */
+    private static void read(URL resource, Map<String, Entry> entries, CRC32 checksum) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = resource.openStream()) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) bytes.write(buffer, 0, n);
+        }
+        checksum.update(bytes.toByteArray(), 0, bytes.size());
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(bytes.toByteArray()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int eq = line.indexOf('=');
+                int semicolon = line.indexOf(';', eq);
+                if (eq <= 0 || semicolon < 0) continue;
+
+                Map<String, String> fields = Collections.emptyMap();
+                Set<String> lazyFields = Collections.emptySet();
+                String fieldList = line.substring(semicolon + 1);
+                if (!fieldList.isEmpty()) {
+                    fields = new LinkedHashMap<>();
+                    for (String field : fieldList.split(",")) {
+                        String[] parts = field.split(":");
+                        fields.put(parts[0], parts[1]);
+                        if (parts.length > 2 && "lazy".equals(parts[2])) {
+                            if (lazyFields.isEmpty()) lazyFields = new HashSet<>();
+                            lazyFields.add(parts[0]);
+                        }
+                    }
+                }
+                entries.putIfAbsent(line.substring(0, eq),
+                        new Entry(line.substring(eq + 1, semicolon), fields, lazyFields));
+            }
+        }
+    }
+}
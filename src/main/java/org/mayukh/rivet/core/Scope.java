@@ -0,0 +1,36 @@
+package org.mayukh.rivet.core;
+
+/**
+ * Lifetime of the objects of a bean, set with the scope attribute of <bean>
+ */
+public enum Scope {
+
+    /* one object, created on first lookup and kept in the beanstore; the default */
+    SINGLETON,
+
+    /* a new object on every lookup, never stored */
+    PROTOTYPE,
+
+    /* one object per thread, dropped with the thread; a virtual thread gets its own, like any other thread */
+    THREAD,
+
+    /* objects borrowed from a bounded pool, and given back with DiContainer.releaseBean() */
+    POOLED;
+
+    /**
+     * scope by its name in the config, case insensitive; SINGLETON if absent
+     */
+    static Scope of(String name) {
+        if (name == null) return SINGLETON;
+        for (Scope scope : values())
+            if (scope.name().equalsIgnoreCase(name.trim())) return scope;
+        throw new RivetException("Unknown scope " + name);
+    }
+
+    /**
+     * name in the config
+     */
+    String configName() {
+        return name().toLowerCase();
+    }
+}
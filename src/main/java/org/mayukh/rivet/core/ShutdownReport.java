@@ -0,0 +1,71 @@
+package org.mayukh.rivet.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a shutdown: the layers in which singletons were destroyed, dependents before their dependencies, then
+ * the pooled beans whose idle objects were destroyed, and the beans whose destroy method failed or did not finish
+ * within the timeout.
+ */
+public class ShutdownReport {
+
+    private final List<List<String>> layers;
+    private final Map<String, Throwable> failed;
+    private final Set<String> timedOut;
+    private final long nanos;
+
+    ShutdownReport(List<List<String>> layers, Map<String, Throwable> failed, Set<String> timedOut, long nanos) {
+        this.layers = Collections.unmodifiableList(layers);
+        this.failed = Collections.unmodifiableMap(failed);
+        this.timedOut = Collections.unmodifiableSet(timedOut);
+        this.nanos = nanos;
+    }
+
+    /**
+     * created singletons, in the order they were destroyed, then a last layer of pooled beans if any; beans of a
+     * layer were destroyed in parallel
+     */
+    public List<List<String>> getLayers() {
+        return layers;
+    }
+
+    /**
+     * <bean name, what its destroy method threw>; for a pooled bean, the first failure of its idle or evicted
+     * objects, with the others suppressed in it
+     */
+    public Map<String, Throwable> getFailed() {
+        return failed;
+    }
+
+    /**
+     * beans left behind after the timeout, still being destroyed
+     */
+    public Set<String> getTimedOut() {
+        return timedOut;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * whether every singleton was destroyed in time
+     */
+    public boolean isClean() {
+        return failed.isEmpty() && timedOut.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ShutdownReport{" +
+                "\n\tlayers=" + layers +
+                ", \n\tfailed=" + failed.keySet() +
+                ", \n\ttimedOut=" + timedOut +
+                ", \n\tmicros=" + TimeUnit.NANOSECONDS.toMicros(nanos) +
+                "\n}";
+    }
+}
@@ -0,0 +1,96 @@
+package org.mayukh.rivet.core;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Shared symbol table of bean defs: one copy of each string (bean names, type names, param names, values and refs)
+ * and of each param, however many defs use it. A large config repeats the same few type names and params over and
+ * over, so the defs keep references to the shared copies instead of a copy each.
+ *
+ * Entries are held weakly, so that symbols of defs which were reloaded away can be collected. Each table is split
+ * into stripes by hash, each with its own lock, so that config fragments read in parallel rarely wait on each other.
+ */
+final class Symbols {
+
+    /* power of two, well above the number of threads reading fragments */
+    private static final int STRIPES = 64;
+
+    private static final Table<String> strings = new Table<>();
+    private static final Table<Param> params = new Table<>();
+
+    private Symbols() {}
+
+    /**
+     * the shared copy of the string; null for null
+     */
+    static String intern(String s) {
+        return s == null ? null : strings.intern(s);
+    }
+
+    /**
+     * the shared copy of an equal param. Params are immutable, so one can be shared by any number of beans.
+     */
+    @SuppressWarnings("unchecked")
+    static <P extends Param> P intern(P param) {
+        return (P) params.intern(param);
+    }
+
+    /**
+     * estimated bytes of the shared strings and params
+     */
+    static long bytes() {
+        return strings.bytes(Footprint::of) + params.bytes(param -> Footprint.shallow(param.getClass()));
+    }
+
+    static int size() {
+        return strings.size() + params.size();
+    }
+
+    /**
+     * weak map of shared copies, locked by stripe
+     */
+    private static final class Table<T> {
+        private final Map<T, WeakReference<T>>[] stripes;
+
+        @SuppressWarnings("unchecked")
+        Table() {
+            stripes = (Map<T, WeakReference<T>>[]) new Map<?, ?>[STRIPES];
+            for (int i = 0; i < STRIPES; i++) stripes[i] = new WeakHashMap<>();
+        }
+
+        T intern(T t) {
+            int h = t.hashCode();
+            Map<T, WeakReference<T>> stripe = stripes[(h ^ h >>> 16) & (STRIPES - 1)];
+            synchronized (stripe) {
+                WeakReference<T> ref = stripe.get(t);
+                T shared = ref == null ? null : ref.get();
+                if (shared != null) return shared;
+                stripe.put(t, new WeakReference<>(t));
+                return t;
+            }
+        }
+
+        long bytes(ToLongFunction<T> size) {
+            long bytes = 0;
+            for (Map<T, WeakReference<T>> stripe : stripes) {
+                synchronized (stripe) {
+                    for (T t : stripe.keySet()) bytes += size.applyAsLong(t);
+                }
+            }
+            return bytes;
+        }
+
+        int size() {
+            int size = 0;
+            for (Map<T, WeakReference<T>> stripe : stripes) {
+                synchronized (stripe) {
+                    size += stripe.size();
+                }
+            }
+            return size;
+        }
+    }
+}
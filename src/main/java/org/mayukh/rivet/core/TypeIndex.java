@@ -0,0 +1,63 @@
+package org.mayukh.rivet.core;
+
+import java.util.*;
+
+/**
+ * Names of the defined beans per type they can be assigned to: their own class, its superclasses and all
+ * interfaces it implements, directly or inherited. Built once from the bean defs, so that a lookup by type is a
+ * single hash lookup, without scanning the beans or checking isAssignableFrom().
+ */
+final class TypeIndex {
+
+    private static final String[] NONE = new String[0];
+
+    /* <type, names of beans of the type, sorted> */
+    private final Map<Class<?>, String[]> names;
+
+    private TypeIndex(Map<Class<?>, String[]> names) {
+        this.names = names;
+    }
+
+    static TypeIndex build(Map<String, Bean> beanDefs) {
+        Map<Class<?>, Set<String>> index = new HashMap<>();
+        for (Bean bean : beanDefs.values()) {
+            Class<?> type;
+            try {
+                type = Types.forName(bean.getType());
+            } catch (ClassNotFoundException e) {
+                throw new RivetException("Unknown type " + bean.getType() + " of bean " + bean.getName(), e);
+            }
+            for (Class<?> assignable : assignableTypes(type))
+                index.computeIfAbsent(assignable, t -> new TreeSet<>()).add(bean.getName());
+        }
+
+        Map<Class<?>, String[]> names = new HashMap<>(index.size() * 2);
+        for (Map.Entry<Class<?>, Set<String>> entry : index.entrySet())
+            names.put(entry.getKey(), entry.getValue().toArray(NONE));
+        return new TypeIndex(names);
+    }
+
+    /**
+     * the type, its superclasses and every interface they implement, including super interfaces
+     */
+    private static Set<Class<?>> assignableTypes(Class<?> type) {
+        Set<Class<?>> types = new LinkedHashSet<>();
+        Deque<Class<?>> pending = new ArrayDeque<>();
+        pending.push(type);
+        while (!pending.isEmpty()) {
+            Class<?> t = pending.pop();
+            if (!types.add(t)) continue;
+            if (t.getSuperclass() != null) pending.push(t.getSuperclass());
+            for (Class<?> i : t.getInterfaces()) pending.push(i);
+        }
+        return types;
+    }
+
+    /**
+     * names of the beans of the type, sorted; empty if none. The array is shared, and must not be modified.
+     */
+    String[] get(Class<?> type) {
+        String[] beans = names.get(type);
+        return beans == null ? NONE : beans;
+    }
+}
@@ -0,0 +1,197 @@
+package org.mayukh.rivet.core;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Reflective metadata of a type, shared by all beans of the type: its cons, setters, factory and other methods as
+ * method handles, and its @Riveted fields. Each is looked up once per type, on first use, rather than once per bean.
+ *
+ * The metadata is kept with the class itself through a ClassValue, so it goes away with the class, and does not
+ * hold on to the class loader of a redeployed application.
+ */
+final class TypeMetadata {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType SPREAD_CONS_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType METHOD_TYPE = MethodType.methodType(void.class, Object.class);
+    private static final MethodType SPREAD_FACTORY_TYPE = MethodType.methodType(Object.class, Object.class,
+            Object[].class);
+
+    private static final ClassValue<TypeMetadata> METADATA = new ClassValue<TypeMetadata>() {
+        @Override
+        protected TypeMetadata computeValue(Class<?> type) {
+            return new TypeMetadata(type);
+        }
+    };
+
+    private final Class<?> type;
+
+    /* default cons as a Supplier */
+    private volatile Supplier<Object> instantiator;
+
+    /* cons of type (Object[])Object, spread over their params, by param types */
+    private final Map<List<Class<?>>, MethodHandle> constructors = new ConcurrentHashMap<>();
+
+    /* setters, or direct field writes, of type (Object, Object)void, by field name and type */
+    private final Map<String, MethodHandle> setters = new ConcurrentHashMap<>();
+
+    /* no-arg methods of type (Object)void, by name */
+    private final Map<String, MethodHandle> methods = new ConcurrentHashMap<>();
+
+    /* factory methods spread over their params, of type (Object[])Object if static, else (Object, Object[])Object;
+       by name and param types */
+    private final Map<String, MethodHandle> factoryMethods = new ConcurrentHashMap<>();
+
+    /* @Riveted fields declared by the type itself, as an index entry */
+    private volatile RivetedIndex.Entry riveted;
+
+    private TypeMetadata(Class<?> type) {
+        this.type = type;
+    }
+
+    static TypeMetadata of(Class<?> type) {
+        return METADATA.get(type);
+    }
+
+    /**
+     * the default cons as a Supplier, spun through LambdaMetafactory so that it can be inlined like a plain new.
+     * Falls back to invoking the cons handle if the type is not accessible for a lambda (e.g. non-public).
+     */
+    @SuppressWarnings("unchecked")
+    Supplier<Object> instantiator() throws ReflectiveOperationException {
+        Supplier<Object> s = instantiator;
+        if (s != null) return s;
+
+        Constructor<?> cons = type.getDeclaredConstructor();
+        cons.setAccessible(true);
+        MethodHandle handle = LOOKUP.unreflectConstructor(cons);
+        try {
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), handle, MethodType.methodType(type));
+            s = (Supplier<Object>) site.getTarget().invokeExact();
+        } catch (Throwable t) {
+            MethodHandle generic = handle.asType(MethodType.methodType(Object.class));
+            s = () -> {
+                try {
+                    return (Object) generic.invokeExact();
+                } catch (Throwable e) {
+                    throw new RivetException("Cannot create object of type " + type.getName(), e);
+                }
+            };
+        }
+        instantiator = s;
+        return s;
+    }
+
+    /**
+     * the cons taking the param types, spread from an Object[]
+     */
+    MethodHandle constructor(Class<?>... paramTypes) throws ReflectiveOperationException {
+        List<Class<?>> key = Arrays.asList(paramTypes);
+        MethodHandle handle = constructors.get(key);
+        if (handle == null) {
+            Constructor<?> cons = type.getDeclaredConstructor(paramTypes);
+            cons.setAccessible(true);
+            handle = LOOKUP.unreflectConstructor(cons)
+                    .asSpreader(Object[].class, paramTypes.length)
+                    .asType(SPREAD_CONS_TYPE);
+            constructors.putIfAbsent(key, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * public setX(value) by convention, else a direct write to the field x
+     */
+    MethodHandle setter(String name, Class<?> fieldType) throws ReflectiveOperationException {
+        String key = name + ':' + fieldType.getName();
+        MethodHandle handle = setters.get(key);
+        if (handle == null) {
+            /* Heavy use of convention */
+            String methodName = "set" + name.substring(0, 1).toUpperCase() + name.substring(1);
+            Method method = null;
+            try {
+                method = type.getMethod(methodName, fieldType);
+            } catch (NoSuchMethodException e) {
+                handle = FieldSetters.find(type, name);
+            }
+            if (method != null) handle = LOOKUP.unreflect(method).asType(SETTER_TYPE);
+            setters.putIfAbsent(key, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * a public no-arg method, e.g. an init method, ignoring what it returns
+     */
+    MethodHandle method(String name) throws ReflectiveOperationException {
+        MethodHandle handle = methods.get(name);
+        if (handle == null) {
+            handle = LOOKUP.unreflect(type.getMethod(name)).asType(METHOD_TYPE);
+            methods.putIfAbsent(name, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * a public factory method taking the param types, spread from an Object[]; static, or else taking the object
+     * to call it on first
+     */
+    MethodHandle factoryMethod(String name, boolean isStatic, Class<?>... paramTypes)
+            throws ReflectiveOperationException {
+        StringBuilder key = new StringBuilder(name).append(isStatic ? '.' : '#');
+        for (Class<?> paramType : paramTypes) key.append(paramType.getName()).append(',');
+        MethodHandle handle = factoryMethods.get(key.toString());
+        if (handle == null) {
+            Method method = type.getMethod(name, paramTypes);
+            if (Modifier.isStatic(method.getModifiers()) != isStatic)
+                throw new NoSuchMethodException("factory-method " + name + " of " + type.getName() + " should " +
+                        (isStatic ? "" : "not ") + "be static");
+            method.setAccessible(true);
+            handle = LOOKUP.unreflect(method).asSpreader(Object[].class, paramTypes.length)
+                    .asType(isStatic ? SPREAD_CONS_TYPE : SPREAD_FACTORY_TYPE);
+            factoryMethods.putIfAbsent(key.toString(), handle);
+        }
+        return handle;
+    }
+
+    /**
+     * @Riveted fields declared by the type, scanned reflectively, for types which are not in the compile time index
+     */
+    RivetedIndex.Entry riveted() {
+        RivetedIndex.Entry entry = riveted;
+        if (entry == null) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            Set<String> lazyFields = new HashSet<>();
+            for (Field field : type.getDeclaredFields()) {
+                Riveted annotation = field.getAnnotation(Riveted.class);
+                if (annotation == null) continue;
+                fields.put(field.getName(), field.getType().getName());
+                if (annotation.lazy()) lazyFields.add(field.getName());
+            }
+            Class<?> superclass = type.getSuperclass();
+            String superclassName = superclass == null || superclass == Object.class ? "" : superclass.getName();
+            entry = new RivetedIndex.Entry(superclassName, fields, lazyFields);
+            riveted = entry;
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,68 @@
+package org.mayukh.rivet.core;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves type names as written in the config: class names, primitive names and arrays as "type[]".
+ * Names are resolved by the context class loader of the current thread, else the class loader of rivet, so that
+ * bean types of an application deployed in its own class loader are found. Resolved classes are cached per class
+ * loader and name, since thousands of beans and params share a few dozen types. The cache holds loaders and classes
+ * weakly, so that it does not keep a redeployed class loader alive.
+ */
+final class Types {
+
+    private static final Map<String, Class<?>> primitives = new HashMap<>();
+
+    /* <class loader, classes it resolved, by name> */
+    private static final Map<ClassLoader, Map<String, WeakReference<Class<?>>>> classes =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    static {
+        for (Class<?> primitive : new Class<?>[]{int.class, long.class, double.class, float.class, short.class,
+                byte.class, boolean.class, char.class})
+            primitives.put(primitive.getName(), primitive);
+    }
+
+    private Types() {}
+
+    static Class<?> forName(String name) throws ClassNotFoundException {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        return forName(name, loader != null ? loader : Types.class.getClassLoader());
+    }
+
+    private static Class<?> forName(String name, ClassLoader loader) throws ClassNotFoundException {
+        Map<String, WeakReference<Class<?>>> cache = classes.computeIfAbsent(loader, l -> new ConcurrentHashMap<>());
+        WeakReference<Class<?>> cached = cache.get(name);
+        Class<?> c = cached == null ? null : cached.get();
+        if (c != null) return c;
+
+        if (name.endsWith("[]")) {
+            c = Array.newInstance(forName(name.substring(0, name.length() - 2), loader), 0).getClass();
+        } else {
+            Class<?> primitive = primitives.get(name);
+            c = primitive != null ? primitive : load(name, loader);
+        }
+        cache.put(name, new WeakReference<>(c));
+        return c;
+    }
+
+    /**
+     * the class by the given loader, else by the class loader of rivet, e.g. for a context class loader which does
+     * not delegate to it
+     */
+    private static Class<?> load(String name, ClassLoader loader) throws ClassNotFoundException {
+        try {
+            return Class.forName(name, true, loader);
+        } catch (ClassNotFoundException e) {
+            ClassLoader defining = Types.class.getClassLoader();
+            if (loader == defining) throw e;
+            return Class.forName(name, true, defining);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.mayukh.rivet.core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of validating the bean defs: circular references through cons, with their paths, and every other
+ * problem found, e.g. refs to undefined beans, or params which the cons or setters of the bean type do not take.
+ */
+public class ValidationReport {
+
+    private final List<List<String>> cycles;
+    private final List<String> problems;
+
+    ValidationReport(List<List<String>> cycles, List<String> problems) {
+        this.cycles = Collections.unmodifiableList(cycles);
+        this.problems = Collections.unmodifiableList(problems);
+    }
+
+    /**
+     * circular references which cannot be resolved, since they go through a cons; each as the path of bean names
+     * a, b, ..., a. Cycles through setters only are resolved, and not reported.
+     */
+    public List<List<String>> getCycles() {
+        return cycles;
+    }
+
+    public List<String> getProblems() {
+        return problems;
+    }
+
+    public boolean isValid() {
+        return cycles.isEmpty() && problems.isEmpty();
+    }
+
+    /**
+     * fail with all the problems found, if any
+     */
+    public void throwIfInvalid() {
+        if (!isValid()) throw new RivetException("Invalid bean defs " + this);
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationReport{" +
+                "\n\tcycles=" + BeanGraph.paths(cycles) +
+                ", \n\tproblems=" + problems +
+                "\n}";
+    }
+}
@@ -0,0 +1,448 @@
+package org.mayukh.rivet.processor;
+
+import org.mayukh.xparse.dom.RegularXml;
+import org.mayukh.xparse.dom.XmlElement;
+import org.mayukh.xparse.parser.Parser;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Annotation processor which reads rivet-config.xml at build time, and generates plain Java factories for its beans:
+ * one class per bean calling its cons and setters directly, in separate construct and inject steps, and a
+ * GeneratedBeans registry which dispatches to them with a switch on the bean index. DiContainer picks up the
+ * registry instead of parsing the XML at runtime.
+ *
+ * Enabled with the option -Arivet.config=path/to/rivet-config.xml (see the aot profile in the pom);
+ * without it, the processor does nothing.
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(RivetAotProcessor.CONFIG_OPTION)
+public class RivetAotProcessor extends AbstractProcessor {
+
+    static final String CONFIG_OPTION = "rivet.config";
+
+    private static final String PACKAGE = "org.mayukh.rivet.generated";
+    private static final String REGISTRY = "RivetFactories";
+    private static final String CONTAINER = "org.mayukh.rivet.core.DiContainer";
+    private static final String LAZY_REF = "org.mayukh.rivet.core.LazyRef";
+    private static final String FIELD_SETTERS = "org.mayukh.rivet.core.FieldSetters";
+
+    /* cases per generated switch method, to stay well below the size limit of a method */
+    private static final int CASES_PER_METHOD = 1000;
+
+    /**
+     * param of a bean as in the config: value or ref
+     */
+    private static final class Param {
+        final String name;
+        final String type;
+        final String value;
+        final String ref;
+        final boolean lazy;
+
+        Param(String name, String type, String value, String ref, boolean lazy) {
+            this.name = name;
+            this.type = type;
+            this.value = value;
+            this.ref = ref;
+            this.lazy = lazy;
+        }
+    }
+
+    private static final class BeanSpec {
+        final String name;
+        final String type;
+        final List<Param> consParams = new ArrayList<>();
+        final Map<String, Param> setterParams = new LinkedHashMap<>();
+        final String[] scope;
+        final String[] lifecycle;
+        /* factory-bean and factory-method, null where absent */
+        final String[] factoryMethod;
+        String factory;
+
+        BeanSpec(String name, String type, String[] scope, String[] lifecycle, String[] factoryMethod) {
+            this.name = name;
+            this.type = type;
+            this.scope = scope;
+            this.lifecycle = lifecycle;
+            this.factoryMethod = factoryMethod;
+        }
+
+        /**
+         * refs needed to construct an object: the factory bean and the refs of the cons params
+         */
+        Set<String> consDependencies() {
+            Set<String> dependencies = new LinkedHashSet<>();
+            if (factoryMethod[0] != null) dependencies.add(factoryMethod[0]);
+            for (Param param : consParams) if (param.ref != null && !param.lazy) dependencies.add(param.ref);
+            return dependencies;
+        }
+
+        Set<String> dependencies() {
+            Set<String> dependencies = consDependencies();
+            for (Param param : setterParams.values()) if (param.ref != null && !param.lazy) dependencies.add(param.ref);
+            return dependencies;
+        }
+    }
+
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        String config = processingEnv.getOptions().get(CONFIG_OPTION);
+        if (config == null || generated) return false;
+        generated = true;
+
+        try {
+            byte[] xml = Files.readAllBytes(Paths.get(config));
+            List<BeanSpec> beans = readConfig(xml);
+            for (BeanSpec bean : beans) addInjectables(bean);
+            assignFactoryNames(beans);
+            Map<String, BeanSpec> byName = new HashMap<>();
+            for (BeanSpec bean : beans) byName.put(bean.name, bean);
+            for (BeanSpec bean : beans) writeFactory(bean, byName);
+            CRC32 checksum = new CRC32();
+            checksum.update(xml, 0, xml.length);
+            writeRegistry(beans, checksum.getValue());
+        } catch (IOException | RuntimeException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot generate bean factories from " + config + ": " + e);
+        }
+        return false;
+    }
+
+    /**
+     * same schema as DiContainer.createBeanDefs()
+     */
+    private static List<BeanSpec> readConfig(byte[] config) {
+        XmlElement xml = Parser.parse(new String(config));
+        List<BeanSpec> beans = new ArrayList<>();
+        if (!Objects.equals("beans", xml.getStartTag().getName())) return beans;
+
+        for (XmlElement child : ((RegularXml) xml).getChildren()) {
+            Map<String, String> beanAttributes = child.getStartTag().getAttributes();
+            BeanSpec bean = new BeanSpec(beanAttributes.get("name"), beanAttributes.get("type"),
+                    new String[]{beanAttributes.get("scope"), beanAttributes.get("pool-size"),
+                            beanAttributes.get("pool-idle-millis")},
+                    new String[]{beanAttributes.get("init-method"), beanAttributes.get("destroy-method")},
+                    new String[]{beanAttributes.get("factory-bean"), beanAttributes.get("factory-method")});
+            if (child instanceof RegularXml) {
+                for (XmlElement paramXml : ((RegularXml) child).getChildren()) {
+                    Map<String, String> attributes = paramXml.getStartTag().getAttributes();
+                    Param param = new Param(attributes.get("name"), attributes.get("type"),
+                            attributes.get("value"), attributes.get("ref"), "true".equals(attributes.get("lazy")));
+                    if (Objects.equals("cons-param", paramXml.getStartTag().getName())) bean.consParams.add(param);
+                    else if (Objects.equals("setter-param", paramXml.getStartTag().getName()))
+                        bean.setterParams.put(param.name, param);
+                }
+            }
+            beans.add(bean);
+        }
+        return beans;
+    }
+
+    /**
+     * @Riveted fields of the bean type and its superclasses, injected by the ref of the field name
+     */
+    private void addInjectables(BeanSpec bean) {
+        TypeElement type = typeElement(bean.type);
+        Deque<VariableElement> fields = new ArrayDeque<>();
+        for (TypeElement t = type; t != null; t = superclass(t)) {
+            List<VariableElement> declared = ElementFilter.fieldsIn(t.getEnclosedElements());
+            for (int i = declared.size() - 1; i >= 0; i--)
+                if (RivetedIndexProcessor.riveted(declared.get(i)) != null) fields.push(declared.get(i));
+        }
+        for (VariableElement field : fields) {
+            String name = field.getSimpleName().toString();
+            TypeMirror fieldType = processingEnv.getTypeUtils().erasure(field.asType());
+            boolean lazy = RivetedIndexProcessor.isLazy(RivetedIndexProcessor.riveted(field));
+            bean.setterParams.put(name, new Param(name, binaryName(fieldType), null, name, lazy));
+        }
+    }
+
+    /**
+     * whether the type has a public one arg method of the name, as the container would call at runtime
+     */
+    private boolean hasSetter(TypeElement type, String name) {
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type)))
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == 1 &&
+                    method.getModifiers().contains(Modifier.PUBLIC))
+                return true;
+        return false;
+    }
+
+    private TypeElement typeElement(String binaryName) {
+        TypeElement type = processingEnv.getElementUtils().getTypeElement(binaryName.replace('$', '.'));
+        if (type == null) throw new IllegalStateException("Bean type not found: " + binaryName);
+        return type;
+    }
+
+    private static TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) return null;
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    private String binaryName(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) return type.toString();
+        return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) type).asElement()).toString();
+    }
+
+    /**
+     * RivetFactory_<bean name as identifier>, made unique
+     */
+    private static void assignFactoryNames(List<BeanSpec> beans) {
+        Set<String> used = new HashSet<>();
+        for (BeanSpec bean : beans) {
+            StringBuilder identifier = new StringBuilder("RivetFactory_");
+            for (char c : bean.name.toCharArray()) identifier.append(Character.isJavaIdentifierPart(c) ? c : '_');
+            String factory = identifier.toString();
+            for (int i = 2; !used.add(factory); i++) factory = identifier + "_" + i;
+            bean.factory = factory;
+        }
+    }
+
+    private void writeFactory(BeanSpec bean, Map<String, BeanSpec> beans) throws IOException {
+        String type = sourceName(bean.type);
+        StringBuilder src = new StringBuilder();
+        src.append("package ").append(PACKAGE).append(";\n\n")
+                .append("/**\n * Generated by RivetAotProcessor for bean \"").append(bean.name).append("\"\n */\n")
+                .append("public final class ").append(bean.factory).append(" {\n\n")
+                .append("    public static final String NAME = ").append(literal(bean.name)).append(";\n")
+                .append("    public static final String TYPE = ").append(literal(bean.type)).append(";\n");
+        appendAttributes(src, "DEPENDENCIES", bean.dependencies().toArray(new String[0]));
+        appendAttributes(src, "CONS_DEPENDENCIES", bean.consDependencies().toArray(new String[0]));
+        appendAttributes(src, "SCOPE", bean.scope);
+        appendAttributes(src, "LIFECYCLE", bean.lifecycle);
+
+        StringBuilder constants = new StringBuilder();
+        StringBuilder construct = new StringBuilder();
+        construct.append("        return ").append(creation(bean, beans)).append("(");
+        String separator = "";
+        for (Param param : bean.consParams) {
+            construct.append(separator).append(expression(param, constants));
+            separator = ", ";
+        }
+        construct.append(");\n");
+
+        // setters after construct() returned, so that the container can publish the object to setter cycles first
+        StringBuilder body = new StringBuilder();
+        TypeElement origin = typeElement(bean.type);
+        for (Param param : bean.setterParams.values()) {
+            String setter = "set" + Character.toUpperCase(param.name.charAt(0)) + param.name.substring(1);
+            if (hasSetter(origin, setter)) {
+                body.append("        o.").append(setter).append("(").append(expression(param, constants))
+                        .append(");\n");
+                continue;
+            }
+            // no setter: write the field, which may be private, through a handle looked up once
+            String field = "FIELD_" + param.name;
+            constants.append("    private static final java.util.function.BiConsumer<Object, Object> ").append(field)
+                    .append(" = ").append(FIELD_SETTERS).append(".of(").append(type).append(".class, ")
+                    .append(literal(param.name)).append(");\n");
+            body.append("        ").append(field).append(".accept(o, ").append(expression(param, constants))
+                    .append(");\n");
+        }
+
+        if (bean.lifecycle[0] != null) body.append("        o.").append(bean.lifecycle[0]).append("();\n");
+
+        src.append(constants).append("\n")
+                .append("    private ").append(bean.factory).append("() {}\n\n")
+                .append("    public static Object construct() {\n")
+                .append(construct)
+                .append("    }\n\n")
+                .append("    public static void inject(Object bean) {\n");
+        if (body.length() > 0) src.append("        ").append(type).append(" o = (").append(type).append(") bean;\n");
+        src.append(body).append("    }\n}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(PACKAGE + "." + bean.factory, origin).openWriter()) {
+            writer.write(src.toString());
+        }
+    }
+
+    /**
+     * what the cons params are passed to: the cons, the static factory method of the type, or the factory method
+     * of the factory bean, called directly on its type
+     */
+    private static String creation(BeanSpec bean, Map<String, BeanSpec> beans) {
+        String type = sourceName(bean.type);
+        String factoryBean = bean.factoryMethod[0];
+        String factoryMethod = bean.factoryMethod[1];
+        if (factoryMethod == null) return "new " + type;
+        if (factoryBean == null) return "(" + type + ") " + type + "." + factoryMethod;
+        BeanSpec target = beans.get(factoryBean);
+        if (target == null)
+            throw new IllegalStateException("Undefined factory bean " + factoryBean + " of bean " + bean.name);
+        String targetType = sourceName(target.type);
+        return "(" + type + ") ((" + targetType + ") " + CONTAINER + ".getBean(" + literal(factoryBean) + "))." +
+                factoryMethod;
+    }
+
+    /**
+     * public static final String[] constant of config attributes, null where absent
+     */
+    private static void appendAttributes(StringBuilder src, String constant, String[] attributes) {
+        src.append("    public static final String[] ").append(constant).append(" = {");
+        String separator = "";
+        for (String attribute : attributes) {
+            src.append(separator).append(attribute == null ? "null" : literal(attribute));
+            separator = ", ";
+        }
+        src.append("};\n");
+    }
+
+    /**
+     * java expression for a param: a ref looked up from the container, or a literal converted at build time.
+     * Literals of other types are converted once through the Converters registry, into a constant of the factory,
+     * which is shared, copied or converted again for each object, as Converters.valueFor() decides.
+     */
+    private static String expression(Param param, StringBuilder constants) {
+        String type = sourceName(param.type);
+        if (param.ref != null && param.lazy)
+            return "(" + type + ") " + LAZY_REF + ".of(" + type + ".class, " + literal(param.ref) + ")";
+        if (param.ref != null) return "(" + type + ") " + CONTAINER + ".getBean(" + literal(param.ref) + ")";
+        if (param.value == null) return "null";
+
+        switch (param.type) {
+            case "java.lang.String":
+                return literal(param.value);
+            case "java.lang.Integer":
+                return "Integer.valueOf(" + Integer.parseInt(param.value) + ")";
+            case "java.lang.Long":
+                return "Long.valueOf(" + Long.parseLong(param.value) + "L)";
+            case "java.lang.Double":
+                double d = Double.parseDouble(param.value);
+                if (Double.isNaN(d) || Double.isInfinite(d)) return "Double.valueOf(" + literal(param.value) + ")";
+                return "Double.valueOf(" + d + "d)";
+            case "java.time.LocalDate":
+                LocalDate date = LocalDate.parse(param.value);
+                return "java.time.LocalDate.of(" + date.getYear() + ", " + date.getMonthValue() + ", " +
+                        date.getDayOfMonth() + ")";
+            default:
+                int index = 0;
+                for (int i = 0; i < constants.length(); i++) if (constants.charAt(i) == '\n') index++;
+                String constant = "VALUE_" + index;
+                constants.append("    private static final ").append(type).append(" ").append(constant)
+                        .append(" = (").append(type).append(") org.mayukh.rivet.core.Converters.convert(")
+                        .append(literal(param.value)).append(", ").append(type).append(".class);\n");
+                return "(" + type + ") org.mayukh.rivet.core.Converters.valueFor(" + constant + ", " +
+                        literal(param.value) + ", " + type + ".class)";
+        }
+    }
+
+    /**
+     * registry of the factories, with the checksum of the config they were generated from
+     */
+    private void writeRegistry(List<BeanSpec> beans, long checksum) throws IOException {
+        StringBuilder src = new StringBuilder();
+        src.append("package ").append(PACKAGE).append(";\n\n")
+                .append("/**\n * Generated by RivetAotProcessor: index of the generated bean factories\n */\n")
+                .append("public final class ").append(REGISTRY)
+                .append(" implements org.mayukh.rivet.core.GeneratedBeans {\n\n")
+                .append("    public long checksum() {\n        return ").append(checksum).append("L;\n    }\n\n")
+                .append("    public int size() {\n        return ").append(beans.size()).append(";\n    }\n\n");
+        appendSwitch(src, "String", "name", beans, ".NAME");
+        appendSwitch(src, "String", "type", beans, ".TYPE");
+        appendSwitch(src, "String[]", "dependencies", beans, ".DEPENDENCIES.clone()");
+        appendSwitch(src, "String[]", "consDependencies", beans, ".CONS_DEPENDENCIES.clone()");
+        appendSwitch(src, "String[]", "scope", beans, ".SCOPE.clone()");
+        appendSwitch(src, "String[]", "lifecycle", beans, ".LIFECYCLE.clone()");
+        appendSwitch(src, "Object", "construct", beans, ".construct()");
+        appendSwitch(src, "void", "inject", beans, ".inject(o)");
+        src.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(PACKAGE + "." + REGISTRY).openWriter()) {
+            writer.write(src.toString());
+        }
+        FileObject service = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                "META-INF/services/org.mayukh.rivet.core.GeneratedBeans");
+        try (Writer writer = service.openWriter()) {
+            writer.write(PACKAGE + "." + REGISTRY + "\n");
+        }
+    }
+
+    /**
+     * public method(int i) switching on the bean index, split into methods of CASES_PER_METHOD cases each.
+     * void methods take the object as a second param o.
+     */
+    private static void appendSwitch(StringBuilder src, String returnType, String method, List<BeanSpec> beans,
+                                     String member) {
+        boolean isVoid = "void".equals(returnType);
+        String params = isVoid ? "(int i, Object o)" : "(int i)";
+        String args = isVoid ? "(i, o)" : "(i)";
+        String call = isVoid ? "" : "return ";
+        String done = isVoid ? " return;" : "";
+        int chunks = Math.max(1, (beans.size() + CASES_PER_METHOD - 1) / CASES_PER_METHOD);
+        src.append("    public ").append(returnType).append(" ").append(method).append(params).append(" {\n");
+        if (chunks == 1) {
+            src.append("        ").append(call).append(method).append("0").append(args).append(";\n");
+        } else {
+            src.append("        switch (i / ").append(CASES_PER_METHOD).append(") {\n");
+            for (int c = 0; c < chunks; c++)
+                src.append("            case ").append(c).append(": ").append(call).append(method).append(c)
+                        .append(args).append(";").append(done).append("\n");
+            src.append("            default: throw new IndexOutOfBoundsException(String.valueOf(i));\n        }\n");
+        }
+        src.append("    }\n\n");
+
+        for (int c = 0; c < chunks; c++) {
+            src.append("    private static ").append(returnType).append(" ").append(method).append(c)
+                    .append(params).append(" {\n        switch (i) {\n");
+            int end = Math.min(beans.size(), (c + 1) * CASES_PER_METHOD);
+            for (int i = c * CASES_PER_METHOD; i < end; i++)
+                src.append("            case ").append(i).append(": ").append(call)
+                        .append(beans.get(i).factory).append(member).append(";").append(done).append("\n");
+            src.append("            default: throw new IndexOutOfBoundsException(String.valueOf(i));\n")
+                    .append("        }\n    }\n\n");
+        }
+    }
+
+    private static String sourceName(String binaryName) {
+        return binaryName.replace('$', '.');
+    }
+
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': literal.append("\\\""); break;
+                case '\\': literal.append("\\\\"); break;
+                case '\n': literal.append("\\n"); break;
+                case '\r': literal.append("\\r"); break;
+                case '\t': literal.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c > 0x7e) literal.append(String.format("\\u%04x", (int) c));
+                    else literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
@@ -0,0 +1,143 @@
+package org.mayukh.rivet.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Annotation processor which writes the @Riveted fields of every compiled class to META-INF/rivet/riveted.index,
+ * so that beans need not scan fields reflectively at definition time.
+ *
+ * Every class is indexed, including those without @Riveted fields, so that the index also tells which classes
+ * need no injection. One line per class, with lazy fields marked:
+ *  class=superclass;field:type,field:type:lazy
+ */
+@SupportedAnnotationTypes("*")
+public class RivetedIndexProcessor extends AbstractProcessor {
+
+    public static final String INDEX = "META-INF/rivet/riveted.index";
+
+    private static final String RIVETED = "org.mayukh.rivet.core.Riveted";
+
+    /* <class, index line value>, sorted for a reproducible index */
+    private final Map<String, String> entries = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) index(type);
+        if (roundEnv.processingOver() && !entries.isEmpty()) write();
+        return false;   // does not claim any annotation
+    }
+
+    private void index(TypeElement type) {
+        if (type.getKind() == ElementKind.CLASS || type.getKind() == ElementKind.ENUM) {
+            StringBuilder entry = new StringBuilder(binaryName(type.getSuperclass())).append(';');
+            String separator = "";
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                AnnotationMirror riveted = riveted(field);
+                if (riveted == null) continue;
+                entry.append(separator).append(field.getSimpleName()).append(':')
+                        .append(binaryName(processingEnv.getTypeUtils().erasure(field.asType())));
+                if (isLazy(riveted)) entry.append(":lazy");
+                separator = ",";
+            }
+            entries.put(processingEnv.getElementUtils().getBinaryName(type).toString(), entry.toString());
+        }
+        for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) index(member);
+    }
+
+    /**
+     * the @Riveted annotation of a field, or null
+     */
+    static AnnotationMirror riveted(Element field) {
+        for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+            Element annotationType = annotation.getAnnotationType().asElement();
+            if (((TypeElement) annotationType).getQualifiedName().contentEquals(RIVETED)) return annotation;
+        }
+        return null;
+    }
+
+    /**
+     * @Riveted(lazy = true); the default value is not among the explicit element values
+     */
+    static boolean isLazy(AnnotationMirror riveted) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value :
+                riveted.getElementValues().entrySet())
+            if (value.getKey().getSimpleName().contentEquals("lazy"))
+                return Boolean.TRUE.equals(value.getValue().getValue());
+        return false;
+    }
+
+    /**
+     * name as accepted by Class.forName(); empty for no type (superclass of java.lang.Object)
+     */
+    private String binaryName(TypeMirror type) {
+        if (type.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            return processingEnv.getElementUtils().getBinaryName(element).toString();
+        }
+        return type.getKind() == TypeKind.NONE ? "" : type.toString();
+    }
+
+    /**
+     * write the index, keeping entries of an earlier (incremental) compilation for classes not compiled this time
+     */
+    private void write() {
+        Filer filer = processingEnv.getFiler();
+        Map<String, String> index = new TreeMap<>();
+        try {
+            FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int eq = line.indexOf('=');
+                    if (eq > 0) index.put(line.substring(0, eq), line.substring(eq + 1));
+                }
+            }
+        } catch (IOException e) {
+            // no earlier index
+        }
+        index.putAll(entries);
+
+        try {
+            FileObject resource = filer.createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (Writer writer = resource.openWriter()) {
+                for (Map.Entry<String, String> entry : index.entrySet())
+                    writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Cannot write " + INDEX + ": " + e.getMessage());
+        }
+    }
+}
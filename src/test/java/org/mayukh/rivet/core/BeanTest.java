@@ -87,6 +87,44 @@ public class BeanTest {
         System.out.println(number + ", " + number.getClass().getName());
     }
 
+    @Test
+    public void testConvertedParamValues() {
+        assertEquals(java.time.Duration.ofSeconds(30),
+                new SetterParam("timeout", "java.time.Duration", "PT30S", null).create());
+        assertEquals(new java.math.BigDecimal("12.50"),
+                new SetterParam("price", "java.math.BigDecimal", "12.50", null).create());
+        assertEquals(java.util.concurrent.TimeUnit.SECONDS,
+                new ConsParam("unit", "java.util.concurrent.TimeUnit", "SECONDS", null).create());
+        assertEquals(42, new ConsParam("answer", "int", "42", null).create());
+        assertEquals(java.util.UUID.fromString("123e4567-e89b-12d3-a456-426614174000"),
+                new ConsParam("id", "java.util.UUID", "123e4567-e89b-12d3-a456-426614174000", null).create());
+
+        SetterParam sizes = new SetterParam("sizes", "int[]", "1, 2, 3", null);
+        int[] first = (int[]) sizes.create();
+        assertArrayEquals(new int[]{1, 2, 3}, first);
+        assertNotSame("Array constants should not be shared between objects", first, sizes.create());
+
+        Converters.register(Battery.class, value -> new Battery(value, 100.0));
+        try {
+            SetterParam battery = new SetterParam("battery", "org.mayukh.rivet.model.Battery", "Amaron", null);
+            assertEquals("Amaron", ((Battery) battery.create()).getName());
+            assertNotSame("Values of registered types should not be shared between objects",
+                    battery.create(), battery.create());
+        } finally {
+            Converters.unregister(Battery.class);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMutableTypesNeedARegisteredConverter() {
+        new SetterParam("buffer", "java.lang.StringBuilder", "text", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParamValueFailsAtDefinition() {
+        new ConsParam("chargeLeft", "java.lang.Double", "forty", null);
+    }
+
     private Battery createBatteryUsingSetters() {
         /* Read setterParams and create map from xml/ json file */
         SetterParam batteryName = new SetterParam("name", "java.lang.String", "Amaron", null);
@@ -159,6 +197,50 @@ public class BeanTest {
         assertEquals("Car name should be Tesla", "Tesla", tesla.getName());
     }
 
+    /**
+     * the creation plan is compiled once per bean, and each create() builds a fresh object from it
+     */
+    @Test
+    public void testCreationPlanReuse() {
+        SetterParam ecName = new SetterParam("name", "java.lang.String", "Leaf", null);
+        Map<String, SetterParam> ecParams = new HashMap<>();
+        ecParams.put("name", ecName);
+        createBatteryUsingCons();
+
+        Bean ecBean = new Bean("leaf", "org.mayukh.rivet.model.ElectricCar", ecParams, null);
+        ElectricCar first = (ElectricCar) ecBean.create();
+        ElectricCar second = (ElectricCar) ecBean.create();
+
+        assertNotSame("Each create() should build a new object", first, second);
+        assertEquals("Car name should be Leaf", "Leaf", second.getName());
+        assertSame("Injected battery should come from the bean store", first.getBattery(), second.getBattery());
+    }
+
+    /**
+     * a car type which only inherits its injectable fields
+     */
+    public static class SportsCar extends ElectricCar {
+    }
+
+    @Test
+    public void testRivetedIndex() {
+        RivetedIndex.Entry entry = RivetedIndex.get("org.mayukh.rivet.model.ElectricCar");
+        assertNotNull("ElectricCar should be indexed at compile time", entry);
+        assertEquals("org.mayukh.rivet.model.Battery", entry.fields.get("battery"));
+        assertTrue("Battery has no injectable fields",
+                RivetedIndex.get("org.mayukh.rivet.model.Battery").fields.isEmpty());
+    }
+
+    @Test
+    public void testInheritedInjectableField() {
+        createBatteryUsingCons();
+        Bean carBean = new Bean("sportsCar", "org.mayukh.rivet.core.BeanTest$SportsCar", null, null);
+
+        assertNotNull("Inherited @Riveted field should be injectable", carBean.getSetterParam("battery"));
+        SportsCar car = (SportsCar) carBean.create();
+        assertEquals("Battery name should be Amaron", "Amaron", car.getBattery().getName());
+    }
+
     @Test
     public void testBeanDefsCreationFromXmlFile() {
         DiContainer.createBeanDefs();
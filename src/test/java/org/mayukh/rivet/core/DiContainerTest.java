@@ -0,0 +1,1298 @@
+package org.mayukh.rivet.core;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mayukh.rivet.model.Battery;
+import org.mayukh.rivet.model.ElectricCar;
+import org.mayukh.rivet.processor.RivetAotProcessor;
+
+import javax.management.ObjectName;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the container behaviour of Rivet: bean lookup, creation and the container level features
+ */
+public class DiContainerTest {
+
+    private static final String SLOW = "org.mayukh.rivet.core.DiContainerTest$Slow";
+    private static final String NODE = "org.mayukh.rivet.core.DiContainerTest$Node";
+    private static final String SLOW_NODE = "org.mayukh.rivet.core.DiContainerTest$SlowNode";
+
+    /**
+     * takes a while to construct, and counts its instances
+     */
+    public static class Slow {
+        static final AtomicInteger instances = new AtomicInteger();
+
+        public Slow() throws InterruptedException {
+            instances.incrementAndGet();
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * links to another node, to build bean graphs
+     */
+    public static class Node {
+        private Node next;
+
+        public Node() {}
+
+        public Node(Node next) {
+            this.next = next;
+        }
+
+        public Node getNext() {
+            return next;
+        }
+
+        public void setNext(Node next) {
+            this.next = next;
+        }
+
+        public static Node of(Node next) {
+            return new Node(next);
+        }
+    }
+
+    /**
+     * a node which takes a while to construct, so that threads creating nodes overlap
+     */
+    public static class SlowNode extends Node {
+        public SlowNode() throws InterruptedException {
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * builds nodes through an instance factory method
+     */
+    public static class Plant {
+        final AtomicInteger built = new AtomicInteger();
+
+        public Node build(Node next) {
+            built.incrementAndGet();
+            return new Node(next);
+        }
+    }
+
+    /**
+     * injected without setters: a final @Riveted field, and a private field set by a setter param
+     */
+    public static class Garage {
+        @Riveted
+        private final Slow slow;
+        private String label;
+
+        public Garage() {
+            this.slow = null;
+        }
+
+        public Slow getSlow() {
+            return slow;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * holds something to release; records the order in which objects are closed
+     */
+    public static class Resource implements AutoCloseable {
+        static final List<Resource> closed = Collections.synchronizedList(new ArrayList<>());
+        static final BlockingQueue<Resource> interrupted = new LinkedBlockingQueue<>();
+
+        final Resource inner;
+        boolean opened;
+
+        public Resource() {
+            this(null);
+        }
+
+        public Resource(Resource inner) {
+            this.inner = inner;
+        }
+
+        public void open() {
+            opened = true;
+        }
+
+        @Override
+        public void close() {
+            closed.add(this);
+        }
+
+        public void hang() throws InterruptedException {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.add(this);
+                throw e;
+            }
+        }
+
+        public void fail() {
+            throw new IllegalStateException("cannot release");
+        }
+    }
+
+    /**
+     * made of two beans, which can be created independently
+     */
+    public static class Pair {
+        final Slow left;
+        final Slow right;
+
+        public Pair(Slow left, Slow right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    public interface Greeter {
+        String greet();
+    }
+
+    public static class SlowGreeter implements Greeter {
+        static final AtomicInteger instances = new AtomicInteger();
+
+        public SlowGreeter() {
+            instances.incrementAndGet();
+        }
+
+        public String greet() {
+            return "hello";
+        }
+    }
+
+    /**
+     * refers to greeters lazily, through a @Riveted field and a Supplier setter
+     */
+    public static class Host {
+        @Riveted(lazy = true)
+        private Greeter greeter;
+        private Supplier<Object> greeterSupplier;
+
+        public void setGreeter(Greeter greeter) {
+            this.greeter = greeter;
+        }
+
+        public void setGreeterSupplier(Supplier<Object> greeterSupplier) {
+            this.greeterSupplier = greeterSupplier;
+        }
+    }
+
+    @Before
+    public void resetDiContainer() {
+        DiContainer.reset();
+        Slow.instances.set(0);
+        SlowGreeter.instances.set(0);
+        Resource.closed.clear();
+        Resource.interrupted.clear();
+    }
+
+    static void define(String name, String type, String consRef) {
+        List<ConsParam> consParams = null;
+        if (consRef != null) consParams = Collections.singletonList(new ConsParam("next", type, null, consRef));
+        DiContainer.beanDefs.put(name, new Bean(name, type, null, consParams));
+    }
+
+    @Test
+    public void testSingletonCreatedExactlyOnce() throws Exception {
+        define("slow", SLOW, null);
+
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Object>> results = new ArrayList<>();
+        Callable<Object> lookup = () -> {
+            start.await();
+            return DiContainer.getBean("slow");
+        };
+        for (int i = 0; i < threads; i++) results.add(executor.submit(lookup));
+        start.countDown();
+
+        Object first = results.get(0).get();
+        for (Future<Object> result : results) assertSame("All threads should get the same bean", first, result.get());
+        assertEquals("Singleton should be constructed exactly once", 1, Slow.instances.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testUnrelatedBeansCreatedInParallel() throws Exception {
+        define("slow1", SLOW, null);
+        define("slow2", SLOW, null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<Object> first = executor.submit(() -> DiContainer.getBean("slow1"));
+        Future<Object> second = executor.submit(() -> DiContainer.getBean("slow2"));
+
+        assertNotSame("Different bean names should give different objects", first.get(), second.get());
+        assertEquals(2, Slow.instances.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRefsResolvedThroughContainer() {
+        define("tail", NODE, null);
+        define("head", NODE, "tail");
+
+        Node head = (Node) DiContainer.getBean("head");
+        assertSame("Cons ref should resolve to the singleton", DiContainer.getBean("tail"), head.getNext());
+    }
+
+    @Test(expected = RivetException.class)
+    public void testConsCycleFailsInsteadOfRecursing() {
+        define("a", NODE, "b");
+        define("b", NODE, "a");
+
+        DiContainer.getBean("a");
+    }
+
+    @Test
+    public void testEagerInitByLayers() {
+        define("tail", NODE, null);
+        define("middle", NODE, "tail");
+        define("head", NODE, "middle");
+        define("slow1", SLOW, null);
+        define("slow2", SLOW, null);
+
+        InitReport report = DiContainer.eagerInit();
+
+        assertEquals("All beans should be created", 5, DiContainer.getBeanstore().size());
+        assertEquals("Independent beans should be in the first layer, and a chain of 3 beans needs 3 layers",
+                Arrays.asList(Arrays.asList("slow1", "slow2", "tail"), Collections.singletonList("middle"),
+                        Collections.singletonList("head")), report.getLayers());
+        assertEquals(DiContainer.getBeanstore().keySet(), report.getCreationNanos().keySet());
+        List<String> path = report.getCriticalPath();
+        assertFalse(path.isEmpty());
+        for (int i = 1; i < path.size(); i++)
+            assertTrue("The critical path should follow refs",
+                    DiContainer.beanDefs.get(path.get(i)).getDependencies().contains(path.get(i - 1)));
+        assertSame(DiContainer.getBean("middle"), ((Node) DiContainer.getBean("head")).getNext());
+    }
+
+    /**
+     * what RivetAotProcessor generates for a head -> tail config
+     */
+    static class TwoNodes implements GeneratedBeans {
+        public long checksum() {
+            return 0;
+        }
+
+        public int size() {
+            return 2;
+        }
+
+        public String name(int i) {
+            return i == 0 ? "tail" : "head";
+        }
+
+        public String type(int i) {
+            return NODE;
+        }
+
+        public String[] dependencies(int i) {
+            return i == 0 ? new String[0] : new String[]{"tail"};
+        }
+
+        public String[] consDependencies(int i) {
+            return dependencies(i);
+        }
+
+        public String[] scope(int i) {
+            return new String[3];
+        }
+
+        public String[] lifecycle(int i) {
+            return new String[2];
+        }
+
+        public Object construct(int i) {
+            return i == 0 ? new Node() : new Node((Node) DiContainer.getBean("tail"));
+        }
+
+        public void inject(int i, Object o) {}
+    }
+
+    @Test
+    public void testPrototypeAndThreadScopes() throws Exception {
+        DiContainer.beanDefs.put("proto", new Bean("proto", NODE, null, null).scoped("prototype", null, null));
+        DiContainer.beanDefs.put("perThread", new Bean("perThread", NODE, null, null).scoped("thread", null, null));
+
+        assertNotSame("Prototype bean should be new on every lookup",
+                DiContainer.getBean("proto"), DiContainer.getBean("proto"));
+        Object mine = DiContainer.getBean("perThread");
+        assertSame("Thread bean should be the same within a thread", mine, DiContainer.getBean("perThread"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        assertNotSame("Thread bean should differ across threads",
+                mine, executor.submit(() -> DiContainer.getBean("perThread")).get());
+        executor.shutdown();
+
+        DiContainer.endThreadScope();
+        assertNotSame("Thread bean should be new after the thread scope ends", mine, DiContainer.getBean("perThread"));
+        assertTrue("Only singletons should be stored", DiContainer.getBeanstore().isEmpty());
+    }
+
+    @Test
+    public void testPooledScope() throws Exception {
+        Bean bean = new Bean("pooled", SLOW, null, null).scoped("pooled", "1", "50");
+        DiContainer.beanDefs.put("pooled", bean);
+
+        Object first = DiContainer.getBean("pooled");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Object> waiter = executor.submit(() -> DiContainer.getBean("pooled"));
+        try {
+            waiter.get(100, TimeUnit.MILLISECONDS);
+            fail("Borrowing beyond the pool size should wait");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        DiContainer.releaseBean("pooled", first);
+        assertSame("Given back object should be reused", first, waiter.get(1, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(1, Slow.instances.get());
+
+        DiContainer.releaseBean("pooled", first);
+        Thread.sleep(100);
+        assertNotSame("Idle object should be evicted", first, DiContainer.getBean("pooled"));
+        assertEquals(2, Slow.instances.get());
+        assertEquals(1, bean.getPool().borrowedCount());
+        assertEquals(0, bean.getPool().idleCount());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        ContainerMetrics metrics = DiContainer.enableMetrics();
+        try {
+            DiContainer.createBeanDefs(Paths.get("src/test/resources/rivet/fragments"));
+            define("head", NODE, "tail");
+            define("tail", NODE, null);
+            DiContainer.getBean("head");
+            DiContainer.getBean("head");
+
+            assertEquals(1, metrics.getLookupHits());
+            assertEquals(2, metrics.getLookupMisses());
+            List<ContainerMetrics.BeanTiming> timings = metrics.getBeanTimings();
+            assertEquals("tail", timings.get(0).getName());
+            assertEquals("head", timings.get(1).getName());
+            assertTrue("Creating tail should count as dependency time of head",
+                    timings.get(1).getDependencyNanos() >= timings.get(0).getTotalNanos());
+            assertTrue(metrics.getConfigNanos() > 0);
+
+            Object created = ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(new ObjectName(ContainerMetrics.OBJECT_NAME), "BeansCreated");
+            assertEquals(2L, created);
+            String trace = metrics.chromeTrace();
+            assertTrue(trace.contains("\"name\":\"head\",\"cat\":\"bean\",\"ph\":\"X\""));
+            assertTrue(trace.contains("\"cat\":\"config\""));
+        } finally {
+            DiContainer.disableMetrics();
+        }
+        assertNull(DiContainer.getMetrics());
+
+        ContainerMetrics capped = new ContainerMetrics(2);
+        Bean proto = new Bean("proto", NODE, null, null).scoped("prototype", null, null);
+        for (int i = 0; i < 5; i++) capped.create(proto, o -> {});
+        assertEquals(5, capped.getBeansCreated());
+        assertEquals(2, capped.getBeanTimings().size());
+        assertEquals(3, capped.getUntimedBeans());
+    }
+
+    @Test
+    public void testGeneratedBeanDefs() {
+        DiContainer.loadGeneratedBeanDefs(new TwoNodes());
+
+        Node head = (Node) DiContainer.getBean("head");
+        assertSame("Generated factory should resolve refs through the container",
+                DiContainer.getBean("tail"), head.getNext());
+        assertEquals(2, DiContainer.eagerInit().getLayers().size());
+    }
+
+    @Test
+    public void testGeneratedBeansOfAnotherConfig() {
+        DiContainer.readConfig(new TwoNodes());
+        assertNull("Factories generated from another config should be ignored", DiContainer.getBeanDefs().get("head"));
+        assertNotNull(DiContainer.getBeanDefs().get("battery"));
+        assertTrue(DiContainer.isGeneratedFactoriesStale());
+
+        DiContainer.reset();
+        long checksum = ConfigSnapshot.checksum(Paths.get("src/main/resources/rivet/rivet-config.xml"));
+        DiContainer.readConfig(new TwoNodes() {
+            @Override
+            public long checksum() {
+                return checksum;
+            }
+        });
+        assertNotNull("Factories generated from this config should be used", DiContainer.getBeanDefs().get("head"));
+        assertNull(DiContainer.getBeanDefs().get("battery"));
+        assertFalse(DiContainer.isGeneratedFactoriesStale());
+    }
+
+    @Test
+    public void testAotProcessor() throws Exception {
+        Path dir = Files.createTempDirectory("rivet-aot");
+        Path config = dir.resolve("rivet-config.xml");
+        Files.write(config, ("<beans>\n" +
+                "    <bean name=\"tail\" type=\"" + NODE + "\" />\n" +
+                "    <bean name=\"head\" type=\"" + NODE + "\">\n" +
+                "        <cons-param name=\"next\" type=\"" + NODE + "\" ref=\"tail\" />\n" +
+                "    </bean>\n" +
+                "    <bean name=\"left\" type=\"" + NODE + "\">\n" +
+                "        <setter-param name=\"next\" type=\"" + NODE + "\" ref=\"right\" />\n" +
+                "    </bean>\n" +
+                "    <bean name=\"right\" type=\"" + NODE + "\">\n" +
+                "        <setter-param name=\"next\" type=\"" + NODE + "\" ref=\"left\" />\n" +
+                "    </bean>\n" +
+                "</beans>\n").getBytes(StandardCharsets.UTF_8));
+        // the processor runs on any compilation, so one empty class is enough
+        Path source = dir.resolve("Marker.java");
+        Files.write(source, "class Marker {}\n".getBytes(StandardCharsets.UTF_8));
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics,
+                    Arrays.asList("-d", classes.toString(),
+                            "-classpath", "target/classes" + File.pathSeparator + "target/test-classes",
+                            "-Arivet.config=" + config),
+                    null, files.getJavaFileObjects(source.toFile()));
+            task.setProcessors(Collections.singletonList(new RivetAotProcessor()));
+            assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+        }
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes.toUri().toURL()},
+                getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                // the classes just generated, not those generated for rivet-config.xml by the aot profile
+                if (!name.startsWith("org.mayukh.rivet.generated.")) return super.loadClass(name, resolve);
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> c = findLoadedClass(name);
+                    return c != null ? c : findClass(name);
+                }
+            }
+        }) {
+            GeneratedBeans generated = (GeneratedBeans) loader.loadClass("org.mayukh.rivet.generated.RivetFactories")
+                    .getDeclaredConstructor().newInstance();
+            assertEquals(ConfigSnapshot.checksum(config), generated.checksum());
+            assertEquals(4, generated.size());
+
+            DiContainer.loadGeneratedBeanDefs(generated);
+            Node head = (Node) DiContainer.getBean("head");
+            assertSame(DiContainer.getBean("tail"), head.getNext());
+            assertTrue("Setter refs should not be needed to construct", DiContainer.validate().isValid());
+            Node left = (Node) DiContainer.getBean("left");
+            assertSame("Generated setters should resolve a cycle through early references",
+                    DiContainer.getBean("right"), left.getNext());
+            assertSame(left, left.getNext().getNext());
+        }
+    }
+
+    @Test
+    public void testTypesOfTheContextClassLoader() throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader original = thread.getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{Paths.get("target/test-classes").toUri().toURL()},
+                original) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                // its own copy of the bean type, as an application deployed in its own class loader would have
+                if (!name.equals(NODE)) return super.loadClass(name, resolve);
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> c = findLoadedClass(name);
+                    return c != null ? c : findClass(name);
+                }
+            }
+        }) {
+            thread.setContextClassLoader(loader);
+            Class<?> deployed = Types.forName(NODE);
+            assertSame("Types should resolve by the context class loader", loader, deployed.getClassLoader());
+            assertSame(deployed, Types.forName(NODE + "[]").getComponentType());
+            assertSame(Battery.class, Types.forName(Battery.class.getName()));
+
+            thread.setContextClassLoader(original);
+            assertSame("Types should be cached per class loader", Node.class, Types.forName(NODE));
+        } finally {
+            thread.setContextClassLoader(original);
+        }
+    }
+
+    @Test
+    public void testConfigSnapshot() throws Exception {
+        Path snapshot = Files.createTempDirectory("rivet").resolve("rivet-config.snapshot");
+        DiContainer.useSnapshot(snapshot);
+        try {
+            // without the generated factories of the aot profile, which would take the place of the snapshot
+            DiContainer.readConfig(null);
+            long key = ConfigSnapshot.key(Paths.get("src/main/resources/rivet/rivet-config.xml"));
+            assertNotNull("Snapshot should be written on first startup", ConfigSnapshot.read(snapshot, key));
+            String defsFromXml = DiContainer.getBeanDefs().get("battery").toString();
+
+            DiContainer.reset();
+            DiContainer.readConfig(null);
+            assertEquals("Snapshot should give the same bean defs",
+                    defsFromXml, DiContainer.getBeanDefs().get("battery").toString());
+            ElectricCar tesla = (ElectricCar) DiContainer.getBean("tesla");
+            assertEquals(42.0, tesla.getBattery().getChargeLeft(), 0.01);
+
+            assertNull("Snapshot of another XML should not be used",
+                    ConfigSnapshot.read(snapshot, 42L << 32 | RivetedIndex.checksum()));
+            assertNull("Snapshot of other @Riveted fields should not be used",
+                    ConfigSnapshot.read(snapshot, key ^ 1));
+        } finally {
+            DiContainer.useSnapshot(null);
+        }
+    }
+
+    @Test
+    public void testStreamingBeanDefReader() throws Exception {
+        String config = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<!-- generated -->\n" +
+                "<beans>\n" +
+                "    <bean name=\"tail\" type=\"" + NODE + "\" />\n" +
+                "    <bean name='head' type='" + NODE + "'>\n" +
+                "        <!-- <cons-param name=\"ignored\" /> -->\n" +
+                "        <cons-param name=\"next\" type=\"" + NODE + "\" ref=\"tail\"></cons-param>\n" +
+                "    </bean>\n" +
+                "    <bean name=\"r&amp;d\" type=\"org.mayukh.rivet.model.Battery\">\n" +
+                "        <setter-param name=\"name\" type=\"java.lang.String\" value=\"&lt;Amaron&gt;\" />\n" +
+                "    </bean>\n" +
+                "</beans>\n";
+        Map<String, Bean> defs = DiContainer.readBeanDefs(
+                Channels.newChannel(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8))));
+
+        assertEquals(Arrays.asList("tail", "head", "r&d"), new ArrayList<>(defs.keySet()));
+        assertEquals("tail", defs.get("head").getDependencies().iterator().next());
+        assertEquals("<Amaron>", defs.get("r&d").getSetterParam("name").getValue());
+
+        assertMalformed("<beans>\n    <bean name=\"a\" type=\"" + NODE + "\"></cons-param>\n</beans>\n",
+                "Expected </bean>, found </cons-param> (config line 2)");
+        assertMalformed("<beans>\n    <bean name=\"&#xZZ;\" type=\"" + NODE + "\" />\n</beans>\n",
+                "Invalid character reference &#xZZ; (config line 2)");
+        assertMalformed("<beans>\n    <bean name=\"&#1114112;\" type=\"" + NODE + "\" />\n</beans>\n",
+                "Invalid character reference &#1114112;");
+    }
+
+    private static void assertMalformed(String config, String message) throws Exception {
+        try {
+            DiContainer.readBeanDefs(
+                    Channels.newChannel(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8))));
+            fail("Malformed config should fail: " + config);
+        } catch (RivetException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void testLazyRefs() throws Exception {
+        String config = "<beans>\n" +
+                "    <bean name=\"greeter\" type=\"" + DiContainerTest.class.getName() + "$SlowGreeter\" />\n" +
+                "    <bean name=\"host\" type=\"" + DiContainerTest.class.getName() + "$Host\">\n" +
+                "        <setter-param name=\"greeterSupplier\" type=\"java.util.function.Supplier\" ref=\"greeter\"" +
+                " lazy=\"true\" />\n" +
+                "    </bean>\n" +
+                "</beans>\n";
+        DiContainer.beanDefs.putAll(DiContainer.readBeanDefs(
+                Channels.newChannel(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)))));
+        assertTrue("Lazy refs should not be creation dependencies",
+                DiContainer.beanDefs.get("host").getDependencies().isEmpty());
+
+        Host host = (Host) DiContainer.getBean("host");
+        assertEquals("Lazy refs should not be created with the bean", 0, SlowGreeter.instances.get());
+        assertTrue(host.greeter.toString().contains("not resolved"));
+        assertEquals(host.greeter, host.greeter);
+        assertEquals(System.identityHashCode(host.greeter), host.greeter.hashCode());
+        assertEquals("Object methods should not resolve a lazy ref", 0, SlowGreeter.instances.get());
+        assertEquals("hello", host.greeter.greet());
+        assertSame(DiContainer.getBean("greeter"), host.greeterSupplier.get());
+        assertEquals(1, SlowGreeter.instances.get());
+
+        try {
+            new SetterParam("next", NODE, null, "tail", true);
+            fail("Lazy refs to a class type should fail at definition");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLookupByType() {
+        DiContainer.beanDefs.put("greeter", new Bean("greeter", SlowGreeter.class.getName(), null, null));
+        define("head", NODE, "tail");
+        define("tail", NODE, null);
+
+        Greeter greeter = DiContainer.getBean(Greeter.class);
+        assertSame("Bean should be found by an interface it implements", DiContainer.getBean("greeter"), greeter);
+        assertSame(greeter, DiContainer.getBean(SlowGreeter.class));
+        assertNull(DiContainer.getBean(Runnable.class));
+
+        Map<String, Node> nodes = DiContainer.getBeansOfType(Node.class);
+        assertEquals(Arrays.asList("head", "tail"), new ArrayList<>(nodes.keySet()));
+        assertSame(nodes.get("tail"), nodes.get("head").getNext());
+        assertEquals(3, DiContainer.getBeansOfType(Object.class).size());
+        try {
+            DiContainer.getBean(Node.class);
+            fail("Lookup by a type of several beans should fail");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("[head, tail]"));
+        }
+    }
+
+    @Test
+    public void testFreeze() {
+        define("head", NODE, "tail");
+        define("tail", NODE, null);
+        DiContainer.beanDefs.put("proto", new Bean("proto", NODE, null, null).scoped("prototype", null, null));
+        Object tail = DiContainer.getBean("tail");
+
+        DiContainer.freeze();
+        assertTrue(DiContainer.isFrozen());
+        assertSame("Singletons created before freezing should be kept", tail, DiContainer.getBean("tail"));
+        assertSame("Remaining singletons should be created on freezing",
+                DiContainer.getBeanstore().get("head"), DiContainer.getBean("head"));
+        assertNotSame(DiContainer.getBean("proto"), DiContainer.getBean("proto"));
+        assertNull(DiContainer.getBean("undefined"));
+        try {
+            DiContainer.createBeanDefs(Paths.get("src/test/resources/rivet/fragments"));
+            fail("Defining beans in a frozen container should fail");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("frozen"));
+        }
+    }
+
+    @Test
+    public void testFrozenBeansTable() {
+        Map<String, Object> beans = new HashMap<>();
+        for (int i = 0; i < 1000; i++) beans.put("bean" + i, i);
+        FrozenBeans frozen = new FrozenBeans(beans);
+        for (int i = 0; i < 1000; i++) assertEquals(i, frozen.get(new String("bean" + i)));
+        assertNull(frozen.get("bean1000"));
+        assertEquals(2048, frozen.capacity());
+        assertNull(new FrozenBeans(Collections.emptyMap()).get("any"));
+    }
+
+    static Map<String, Bean> nodes(String tailNext) throws Exception {
+        String config = "<beans>\n" +
+                "    <bean name=\"other\" type=\"" + NODE + "\" />\n" +
+                "    <bean name=\"tail\" type=\"" + NODE + "\">\n" +
+                (tailNext == null ? "" :
+                        "        <setter-param name=\"next\" type=\"" + NODE + "\" ref=\"" + tailNext + "\" />\n") +
+                "    </bean>\n" +
+                "    <bean name=\"head\" type=\"" + NODE + "\">\n" +
+                "        <cons-param name=\"next\" type=\"" + NODE + "\" ref=\"tail\" />\n" +
+                "    </bean>\n" +
+                "</beans>\n";
+        return DiContainer.readBeanDefs(
+                Channels.newChannel(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testReloadRebuildsOnlyAffectedBeans() throws Exception {
+        Map<String, Bean> first = nodes(null);
+        assertEquals(3, DiContainer.reload(Collections.<String>emptySet(), first).getAdded().size());
+        Node head = (Node) DiContainer.getBean("head");
+        Node other = (Node) DiContainer.getBean("other");
+        assertTrue(DiContainer.reload(first.keySet(), nodes(null)).isEmpty());
+        assertSame(head, DiContainer.getBean("head"));
+
+        ReloadReport report = DiContainer.reload(first.keySet(), nodes("other"));
+        assertEquals(Collections.singleton("tail"), report.getChanged());
+        assertEquals(new HashSet<>(Arrays.asList("head", "tail")), report.getRebuilt());
+
+        Node newHead = (Node) DiContainer.getBean("head");
+        assertNotSame("Dependents of a changed bean should be rebuilt", head, newHead);
+        assertSame(DiContainer.getBean("tail"), newHead.getNext());
+        assertSame("Unaffected beans should be kept", other, DiContainer.getBean("other"));
+        assertSame(other, newHead.getNext().getNext());
+    }
+
+    @Test
+    public void testReloadDestroysReplacedSingletons() {
+        Map<String, Bean> first = resources(null);
+        DiContainer.reload(Collections.<String>emptySet(), first);
+        Resource service = (Resource) DiContainer.getBean("service");
+
+        ReloadReport report = DiContainer.reload(first.keySet(), resources("fail"));
+        assertEquals(new HashSet<>(Arrays.asList("file", "service")), report.getDestroyed());
+        assertEquals("Dependents should be destroyed first", Arrays.asList(service, service.inner), Resource.closed);
+        assertTrue(report.getDestroyFailed().isEmpty());
+
+        DiContainer.getBean("service");
+        report = DiContainer.reload(first.keySet(), Collections.<String, Bean>emptyMap());
+        assertEquals(new HashSet<>(Arrays.asList("file", "service")), report.getRemoved());
+        assertEquals(Collections.singleton("file"), report.getDestroyFailed().keySet());
+        assertEquals(3, Resource.closed.size());
+        assertTrue(DiContainer.getBeanstore().isEmpty());
+    }
+
+    private static Map<String, Bean> resources(String fileDestroyMethod) {
+        String type = Resource.class.getName();
+        Map<String, Bean> defs = new LinkedHashMap<>();
+        defs.put("file", new Bean("file", type, null, null).lifecycle(null, fileDestroyMethod));
+        defs.put("service", new Bean("service", type, null,
+                Collections.singletonList(new ConsParam("inner", type, null, "file"))));
+        return defs;
+    }
+
+    @Test
+    public void testWatchConfig() throws Exception {
+        Path dir = Files.createTempDirectory("rivet-watch");
+        Path config = dir.resolve("rivet-config.xml");
+        Files.write(config, Files.readAllBytes(Paths.get("src/test/resources/rivet/fragments/batteries.xml")));
+        BlockingQueue<ReloadReport> reports = new LinkedBlockingQueue<>();
+        try (ConfigWatcher watcher = DiContainer.watchConfig(config, reports::add)) {
+            Object battery = DiContainer.getBean("battery");
+            assertNotNull("Config should be loaded when watching starts", battery);
+
+            String xml = new String(Files.readAllBytes(config), StandardCharsets.UTF_8);
+            Files.write(config, xml.replace("Exide", "Amaron").getBytes(StandardCharsets.UTF_8));
+            ReloadReport report = reports.poll(10, TimeUnit.SECONDS);
+            assertNotNull("Change should be picked up", report);
+            assertEquals(Collections.singleton("battery"), report.getChanged());
+            assertEquals("Amaron", ((Battery) DiContainer.getBean("battery")).getName());
+            assertFalse(report.isFailed());
+
+            Files.write(config, ("<beans><bean name=\"broken\" type=\"" + NODE + "\">")
+                    .getBytes(StandardCharsets.UTF_8));
+            report = reports.poll(10, TimeUnit.SECONDS);
+            assertNotNull("A rejected config should be reported", report);
+            assertTrue(report.toString(), report.isFailed());
+            assertNotNull(report.getFailure());
+            assertEquals("Amaron", ((Battery) DiContainer.getBean("battery")).getName());
+        } finally {
+            Files.delete(config);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testFieldInjectionWithoutSetters() {
+        define("slow", SLOW, null);
+        Map<String, SetterParam> setterParams = new HashMap<>();
+        setterParams.put("label", new SetterParam("label", "java.lang.String", "north", null));
+        DiContainer.beanDefs.put("garage", new Bean("garage", Garage.class.getName(), setterParams, null));
+
+        Garage garage = (Garage) DiContainer.getBean("garage");
+        assertSame(DiContainer.getBean("slow"), garage.getSlow());
+        assertEquals("north", garage.getLabel());
+
+        setterParams = new HashMap<>();
+        setterParams.put("colour", new SetterParam("colour", "java.lang.String", "red", null));
+        DiContainer.beanDefs.put("painted", new Bean("painted", Garage.class.getName(), setterParams, null));
+        try {
+            DiContainer.getBean("painted");
+            fail("A setter param needs a setter or a field");
+        } catch (RivetException e) {
+            assertTrue(e.getCause().getMessage().contains("No setColour method or colour field"));
+        }
+    }
+
+    @Test
+    public void testLifecycle() throws Exception {
+        String type = Resource.class.getName();
+        DiContainer.beanDefs.put("file", new Bean("file", type, null, null).lifecycle("open", null));
+        DiContainer.beanDefs.put("service", new Bean("service", type, null,
+                Collections.singletonList(new ConsParam("inner", type, null, "file"))).lifecycle("open", null));
+        DiContainer.beanDefs.put("stuck", new Bean("stuck", type, null, null).lifecycle(null, "hang"));
+        DiContainer.beanDefs.put("broken", new Bean("broken", type, null, null).lifecycle(null, "fail"));
+        DiContainer.beanDefs.put("unused", new Bean("unused", type, null, null));
+
+        Resource service = (Resource) DiContainer.getBean("service");
+        assertTrue("Init method should be called", service.opened && service.inner.opened);
+        Resource stuck = (Resource) DiContainer.getBean("stuck");
+        DiContainer.getBean("broken");
+
+        ShutdownReport report = DiContainer.shutdown(200, TimeUnit.MILLISECONDS);
+        assertSame("A hung destroy method should be interrupted", stuck,
+                Resource.interrupted.poll(5, TimeUnit.SECONDS));
+        assertEquals("Dependents should be closed first", Arrays.asList(service, service.inner), Resource.closed);
+        assertEquals(Arrays.asList(Collections.singletonList("service"), Arrays.asList("broken", "file", "stuck")),
+                report.getLayers());
+        assertEquals(Collections.singleton("stuck"), report.getTimedOut());
+        assertEquals(Collections.singleton("broken"), report.getFailed().keySet());
+        assertTrue(DiContainer.getBeanstore().isEmpty());
+        assertNotSame("Singletons should be created again after shutdown", service, DiContainer.getBean("service"));
+
+        try {
+            new Bean("proto", type, null, null).scoped("prototype", null, null).lifecycle(null, "close");
+            fail("Only singletons can have a destroy method");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("needs a singleton or pooled scope"));
+        }
+    }
+
+    @Test
+    public void testPooledLifecycle() throws Exception {
+        String type = Resource.class.getName();
+        DiContainer.beanDefs.put("conn", new Bean("conn", type, null, null).scoped("pooled", "2", "50"));
+        DiContainer.beanDefs.put("bad", new Bean("bad", type, null, null).scoped("pooled", "1", "0")
+                .lifecycle(null, "fail"));
+
+        Object first = DiContainer.getBean("conn");
+        Object second = DiContainer.getBean("conn");
+        DiContainer.releaseBean("conn", first);
+        Thread.sleep(100);
+        DiContainer.releaseBean("conn", second);
+        assertEquals("Evicted objects should be closed", Collections.singletonList(first), Resource.closed);
+        DiContainer.releaseBean("bad", DiContainer.getBean("bad"));
+
+        ShutdownReport report = DiContainer.shutdown(1, TimeUnit.SECONDS);
+        assertEquals("Idle objects should be closed at shutdown", Arrays.asList(first, second), Resource.closed);
+        assertEquals(Collections.singletonList(Arrays.asList("bad", "conn")), report.getLayers());
+        assertEquals(Collections.singleton("bad"), report.getFailed().keySet());
+        assertEquals(0, DiContainer.beanDefs.get("conn").getPool().idleCount());
+    }
+
+    @Test
+    public void testTypeMetadataSharedByBeansOfAType() throws Exception {
+        TypeMetadata metadata = TypeMetadata.of(Types.forName(NODE));
+        assertSame(metadata, TypeMetadata.of(Node.class));
+        assertSame(Node.class, Types.forName(NODE));
+
+        define("tail", NODE, null);
+        define("head", NODE, "tail");
+        define("other", NODE, "tail");
+        assertSame(DiContainer.getBean("tail"), ((Node) DiContainer.getBean("head")).getNext());
+        assertSame(DiContainer.getBean("tail"), ((Node) DiContainer.getBean("other")).getNext());
+        assertSame("Beans of a type should share its cons", metadata.constructor(Node.class),
+                metadata.constructor(Node.class));
+        assertSame(metadata.instantiator(), metadata.instantiator());
+        assertSame(metadata.setter("next", Node.class), metadata.setter("next", Node.class));
+        assertTrue(metadata.riveted().fields.isEmpty());
+    }
+
+    @Test
+    public void testValidate() {
+        DiContainer.beanDefs.put("a", node("a", "b"));
+        DiContainer.beanDefs.put("b", node("b", "c"));
+        DiContainer.beanDefs.put("c", node("c", "a"));
+        DiContainer.beanDefs.put("dangling", node("dangling", "ghost"));
+        define("slow", SLOW, null);
+        DiContainer.beanDefs.put("mistyped", node("mistyped", "slow"));
+        DiContainer.beanDefs.put("labelled", new Bean("labelled", NODE, null,
+                Collections.singletonList(new ConsParam("label", "java.lang.String", "x", null))));
+
+        ValidationReport report = DiContainer.validate();
+        assertFalse(report.isValid());
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c", "a")), report.getCycles());
+        List<String> problems = report.getProblems();
+        assertEquals(problems.toString(), 3, problems.size());
+        assertEquals("Bean dangling refers to undefined bean ghost", problems.get(0));
+        assertTrue(problems.get(1).startsWith("Bean labelled does not match its type"));
+        assertEquals("Bean mistyped: next of type " + NODE + " cannot take bean slow of type " + SLOW,
+                problems.get(2));
+        try {
+            report.throwIfInvalid();
+            fail("Invalid bean defs should fail");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("a -> b -> c -> a"));
+        }
+
+        DiContainer.reset();
+        define("tail", NODE, null);
+        define("head", NODE, "tail");
+        assertTrue(DiContainer.validate().isValid());
+        assertSame(DiContainer.getBean("tail"), ((Node) DiContainer.getBean("head")).getNext());
+    }
+
+    @Test
+    public void testSetterCycleThroughEarlyReferences() {
+        DiContainer.beanDefs.put("a", linked("a", "b"));
+        DiContainer.beanDefs.put("b", linked("b", "a"));
+        define("head", NODE, "a");
+
+        Node a = (Node) DiContainer.getBean("a");
+        Node b = (Node) DiContainer.getBean("b");
+        assertSame(b, a.getNext());
+        assertSame(a, b.getNext());
+        assertSame(a, ((Node) DiContainer.getBean("head")).getNext());
+
+        ValidationReport report = DiContainer.validate();
+        assertTrue(report.toString(), report.isValid());
+
+        DiContainer.reset();
+        DiContainer.beanDefs.put("a", linked("a", "b"));
+        DiContainer.beanDefs.put("b", linked("b", "a"));
+        define("head", NODE, "a");
+        InitReport init = DiContainer.eagerInit();
+        assertEquals(3, DiContainer.getBeanstore().size());
+        assertEquals(Arrays.asList("a", "b", "head"), init.getLayers().get(init.getLayers().size() - 1));
+        a = (Node) DiContainer.getBean("a");
+        assertSame(a, ((Node) a.getNext()).getNext());
+
+        ChildContainer child = DiContainer.newChild();
+        child.define(linked("c", "d"));
+        child.define(linked("d", "c"));
+        Node c = (Node) child.getBean("c");
+        assertSame(c, c.getNext().getNext());
+
+        DiContainer.reset();
+        define("x", NODE, "y");
+        DiContainer.beanDefs.put("y", linked("y", "x"));
+        try {
+            DiContainer.getBean("x");
+            fail("A cycle through a cons cannot be resolved");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("through a cons"));
+        }
+        assertEquals(Collections.singletonList(Arrays.asList("x", "y", "x")), DiContainer.validate().getCycles());
+    }
+
+    @Test
+    public void testSetterCycleFromTwoThreads() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                DiContainer.reset();
+                DiContainer.beanDefs.put("a", linked("a", SLOW_NODE, "b"));
+                DiContainer.beanDefs.put("b", linked("b", SLOW_NODE, "a"));
+                CountDownLatch start = new CountDownLatch(1);
+                Future<Object> a = threads.submit(() -> {
+                    start.await();
+                    return DiContainer.getBean("a");
+                });
+                Future<Object> b = threads.submit(() -> {
+                    start.await();
+                    return DiContainer.getBean("b");
+                });
+                start.countDown();
+
+                Node na = (Node) a.get(5, TimeUnit.SECONDS);
+                Node nb = (Node) b.get(5, TimeUnit.SECONDS);
+                assertSame(nb, na.getNext());
+                assertSame(na, nb.getNext());
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private static Bean linked(String name, String nextRef) {
+        return linked(name, NODE, nextRef);
+    }
+
+    private static Bean linked(String name, String type, String nextRef) {
+        return new Bean(name, type, Collections.singletonMap("next", new SetterParam("next", NODE, null, nextRef)),
+                null);
+    }
+
+    @Test
+    public void testCompactDefinitions() {
+        Map<String, SetterParam> north = new HashMap<>();
+        north.put("label", new SetterParam("label", new String("java.lang.String"), "north", null));
+        Bean first = new Bean("first", Garage.class.getName(), north, null);
+        north = new HashMap<>();
+        north.put("label", new SetterParam("label", new String("java.lang.String"), "north", null));
+        Bean second = new Bean("second", new String(Garage.class.getName()), north, null);
+        assertSame("Equal params should be shared", first.getSetterParam("label"), second.getSetterParam("label"));
+        assertSame("Type names should be interned", first.getType(), second.getType());
+
+        DiContainer.releaseDefinitions(true);
+        define("tail", NODE, null);
+        define("head", NODE, "tail");
+        Bean head = DiContainer.beanDefs.get("head");
+        head.plan();
+        long before = head.footprint();
+        Node node = (Node) DiContainer.getBean("head");
+        assertTrue(head.isReleased());
+        assertNull(head.getConsParams());
+        assertTrue(head.footprint() < before);
+        assertEquals(Collections.singleton("tail"), head.getConsDependencies());
+        assertEquals(Arrays.asList(Collections.singletonList("tail"), Collections.singletonList("head")),
+                new BeanGraph(DiContainer.beanDefs).layers());
+        assertSame(node, DiContainer.getBean("head"));
+        assertTrue("A released def should match its reloaded def", head.sameDefinition(node("head", "tail")));
+        assertTrue(node("head", "tail").sameDefinition(head));
+        assertFalse(head.sameDefinition(node("head", "other")));
+        try {
+            head.plan();
+            fail("A released def cannot create objects");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("released"));
+        }
+
+        FootprintReport report = DiContainer.footprint();
+        assertEquals(new HashSet<>(Arrays.asList("head", "tail")), report.getBytes().keySet());
+        assertEquals(2, report.getReleased());
+        assertTrue(report.getSharedBytes() > 0);
+        assertTrue(report.getTotalBytes() > report.getSharedBytes());
+
+        Map<String, Bean> next = new LinkedHashMap<>();
+        next.put("tail", new Bean("tail", NODE, null, null));
+        next.put("head", node("head", "tail"));
+        ReloadReport reload = DiContainer.reload(next.keySet(), next);
+        assertTrue("Unchanged released defs should not be rebuilt", reload.getRebuilt().isEmpty());
+        assertSame(node, DiContainer.getBean("head"));
+
+        next.put("tail", new Bean("tail", NODE, null, null).scoped("prototype", null, null));
+        reload = DiContainer.reload(next.keySet(), next);
+        assertEquals(Collections.singleton("head"), reload.getRebuilt());
+        assertNotSame("Dependents of a changed def should be recreated, from their new def",
+                node, DiContainer.getBean("head"));
+    }
+
+    @Test
+    public void testFactoryMethods() throws Exception {
+        String config = "<beans>\n" +
+                "    <bean name=\"tail\" type=\"" + NODE + "\" />\n" +
+                "    <bean name=\"plant\" type=\"" + Plant.class.getName() + "\" />\n" +
+                "    <bean name=\"viaStatic\" type=\"" + NODE + "\" factory-method=\"of\">\n" +
+                "        <cons-param name=\"next\" type=\"" + NODE + "\" ref=\"tail\" />\n" +
+                "    </bean>\n" +
+                "    <bean name=\"built\" type=\"" + NODE + "\" factory-bean=\"plant\" factory-method=\"build\"" +
+                " scope=\"prototype\">\n" +
+                "        <cons-param name=\"next\" type=\"" + NODE + "\" ref=\"viaStatic\" />\n" +
+                "    </bean>\n" +
+                "</beans>\n";
+        DiContainer.beanDefs.putAll(DiContainer.readBeanDefs(
+                Channels.newChannel(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)))));
+
+        Node viaStatic = (Node) DiContainer.getBean("viaStatic");
+        assertSame(DiContainer.getBean("tail"), viaStatic.getNext());
+        Node built = (Node) DiContainer.getBean("built");
+        assertSame(viaStatic, built.getNext());
+        assertNotSame(built, DiContainer.getBean("built"));
+        assertEquals(2, ((Plant) DiContainer.getBean("plant")).built.get());
+        assertEquals(new HashSet<>(Arrays.asList("plant", "viaStatic")),
+                DiContainer.beanDefs.get("built").getConsDependencies());
+        assertTrue(DiContainer.validate().isValid());
+
+        DiContainer.beanDefs.put("notStatic", new Bean("notStatic", Plant.class.getName(), null,
+                Collections.singletonList(new ConsParam("next", NODE, null, "tail"))).factory(null, "build"));
+        try {
+            DiContainer.getBean("notStatic");
+            fail("A factory method without a factory bean should be static");
+        } catch (RivetException e) {
+            assertTrue(e.getCause().getMessage().contains("should be static"));
+        }
+        try {
+            node("orphan", "tail").factory("plant", null);
+            fail("A factory bean needs a factory method");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("needs a factory-method"));
+        }
+    }
+
+    @Test
+    public void testRegisteredSuppliers() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        DiContainer.registerSupplier("fresh", Node.class, Scope.PROTOTYPE, () -> {
+            created.incrementAndGet();
+            return new Node();
+        });
+        DiContainer.registerSupplier("shared", Node.class, Node::new);
+        DiContainer.registerSupplier("pooledNode", Node.class, Scope.POOLED, Node::new);
+
+        assertNotSame(DiContainer.getBean("fresh"), DiContainer.getBean("fresh"));
+        assertEquals(2, created.get());
+        assertSame(DiContainer.getBean("shared"), DiContainer.getBean("shared"));
+        Object pooled = DiContainer.getBean("pooledNode");
+        DiContainer.releaseBean("pooledNode", pooled);
+        assertSame(pooled, DiContainer.getBean("pooledNode"));
+        assertEquals("Lookup by type should neither create prototypes nor borrow from pools",
+                Collections.singleton("shared"), DiContainer.getBeansOfType(Node.class).keySet());
+        assertEquals(2, created.get());
+        assertEquals(1, DiContainer.beanDefs.get("pooledNode").getPool().borrowedCount());
+
+        try {
+            DiContainer.registerSupplier("shared", Node.class, Node::new);
+            fail("Bean names should be unique");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("Duplicate bean names"));
+        }
+    }
+
+    @Test
+    public void testSupplierCycles() {
+        // the supplier looks up a bean which refers back to it, without declaring it
+        DiContainer.registerSupplier("outer", Node.class, Scope.PROTOTYPE,
+                () -> Node.of((Node) DiContainer.getBean("inner")));
+        DiContainer.beanDefs.put("inner", node("inner", "outer").scoped("prototype", null, null));
+        assertTrue(DiContainer.validate().isValid());
+        try {
+            DiContainer.getBean("outer");
+            fail("A cycle through an undeclared ref should be caught at creation");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("Circular reference"));
+        }
+
+        DiContainer.reset();
+        DiContainer.registerSupplier("outer", Node.class, Scope.PROTOTYPE, Collections.singleton("inner"),
+                () -> Node.of((Node) DiContainer.getBean("inner")));
+        DiContainer.beanDefs.put("inner", node("inner", "outer").scoped("prototype", null, null));
+        ValidationReport report = DiContainer.validate();
+        assertFalse("A cycle through a declared ref should be found by validate()", report.isValid());
+
+        DiContainer.reset();
+        DiContainer.registerSupplier("outer", Node.class, Scope.PROTOTYPE, Collections.singleton("inner"),
+                () -> Node.of((Node) DiContainer.getBean("inner")));
+        define("inner", NODE, null);
+        assertTrue(DiContainer.validate().isValid());
+        assertEquals(Arrays.asList(Collections.singletonList("inner"), Collections.singletonList("outer")),
+                DiContainer.eagerInit().getLayers());
+    }
+
+    private static Bean node(String name, String nextRef) {
+        return new Bean(name, NODE, null, Collections.singletonList(new ConsParam("next", NODE, null, nextRef)));
+    }
+
+    @Test
+    public void testChildContainer() {
+        define("tail", NODE, null);
+        define("head", NODE, "tail");
+        ChildContainer child = DiContainer.newChild();
+        Node localTail = new Node();
+        child.addBean("tail", localTail);
+        child.define(node("local", "tail"));
+
+        Node local = (Node) child.getBean("local");
+        assertSame("Local refs should see local beans first", localTail, local.getNext());
+        assertSame(local, child.getBean("local"));
+        assertSame(localTail, child.getBean("tail"));
+        Node head = (Node) child.getBean("head");
+        assertSame("Parent beans should fall through", DiContainer.getBean("head"), head);
+        assertSame("Parent beans should not see the child", DiContainer.getBean("tail"), head.getNext());
+
+        ChildContainer grandchild = child.newChild();
+        assertSame(local, grandchild.getBean("local"));
+        assertNull("Siblings should not share beans", DiContainer.newChild().getBean("local"));
+        assertNull(DiContainer.getBean("local"));
+
+        try {
+            child.addBean("local", new Node());
+            fail("Local bean names should be unique");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("Duplicate bean names [local]"));
+        }
+
+        grandchild.define(node("a", "b"));
+        grandchild.define(node("b", "a"));
+        try {
+            grandchild.getBean("a");
+            fail("Circular references should fail");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage().contains("Circular reference"));
+        }
+    }
+
+    @Test
+    public void testGetBeanAsync() throws Exception {
+        define("left", SLOW, null);
+        define("right", SLOW, null);
+        DiContainer.beanDefs.put("pair", new Bean("pair", Pair.class.getName(), null, Arrays.asList(
+                new ConsParam("left", SLOW, null, "left"), new ConsParam("right", SLOW, null, "right"))));
+
+        CompletableFuture<Object> first = DiContainer.getBeanAsync("pair");
+        CompletableFuture<Object> second = DiContainer.getBeanAsync("pair");
+        Pair pair = (Pair) first.get(5, TimeUnit.SECONDS);
+        assertSame("Concurrent callers should share the creation", pair, second.get(5, TimeUnit.SECONDS));
+        assertSame(DiContainer.getBean("left"), pair.left);
+        assertSame(DiContainer.getBean("right"), pair.right);
+        assertEquals(2, Slow.instances.get());
+        assertSame(pair, DiContainer.getBeanAsync("pair").getNow(null));
+        assertNull(DiContainer.getBeanAsync("undefined").get());
+
+        define("a", NODE, "b");
+        define("b", NODE, "a");
+        try {
+            DiContainer.getBeanAsync("a").get(5, TimeUnit.SECONDS);
+            fail("Circular references should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RivetException);
+        }
+    }
+
+    @Test
+    public void testGetBeanAsyncDoesNotBorrowPooledRefsAhead() throws Exception {
+        Bean part = new Bean("part", NODE, null, null).scoped("pooled", "2", null);
+        DiContainer.beanDefs.put("part", part);
+        define("whole", NODE, "part");
+
+        Node whole = (Node) DiContainer.getBeanAsync("whole").get(5, TimeUnit.SECONDS);
+        assertNotNull(whole.getNext());
+        assertEquals("Only the object injected into the bean should be borrowed", 1, part.getPool().borrowedCount());
+    }
+
+    @Test
+    public void testConfigFragmentsFromDirectory() {
+        DiContainer.createBeanDefs(Paths.get("src/test/resources/rivet/fragments"));
+
+        ElectricCar leaf = (ElectricCar) DiContainer.getBean("leaf");
+        assertEquals("Ref should resolve across fragments", "Exide", leaf.getBattery().getName());
+    }
+
+    @Test
+    public void testConfigFragmentsFromClasspath() {
+        DiContainer.createBeanDefsFromClasspath("rivet/fragments/batteries.xml", "rivet/fragments/cars/cars.xml");
+        assertEquals(2, DiContainer.getBeanDefs().size());
+    }
+
+    @Test
+    public void testDuplicateBeanNamesInOneFile() throws Exception {
+        String config = "<beans>\n" +
+                "    <bean name=\"tail\" type=\"" + NODE + "\" />\n" +
+                "    <bean name=\"head\" type=\"" + NODE + "\" />\n" +
+                "    <bean name=\"tail\" type=\"" + SLOW + "\" />\n" +
+                "</beans>\n";
+        try {
+            DiContainer.readBeanDefs(
+                    Channels.newChannel(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8))));
+            fail("A bean name defined twice in a file should fail the read");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Duplicate bean names [tail]"));
+        }
+    }
+
+    @Test
+    public void testDuplicateBeanNamesAcrossFragments() {
+        try {
+            DiContainer.createBeanDefs(Paths.get("src/test/resources/rivet/duplicates"));
+            fail("Duplicate bean names should fail the load");
+        } catch (RivetException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("battery"));
+            assertTrue(e.getMessage(), e.getMessage().indexOf("a.xml") < e.getMessage().indexOf("b.xml"));
+        }
+        assertTrue("Nothing should be loaded", DiContainer.getBeanDefs().isEmpty());
+    }
+}